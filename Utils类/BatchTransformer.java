@@ -0,0 +1,539 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * 批量压缩图片：解码 → 缩放到目标框内 → 编码写入输出目录，多张图片并行处理。
+ *
+ * 内存按像素数限制而不是只按线程数：每张图片开始解码前按解码计划估算要占用的像素
+ * (解码结果加缩放结果)，同时处理的像素总数超过上限时等待前面的图片完成。
+ * 单张图片超过上限时独占全部额度，不会永远等待。
+ * 结果按完成顺序交给回调，也可以用Batch.take()依次取出。
+ */
+public class BatchTransformer {
+
+	/**
+	 * 默认同时处理的像素数，约为4张1200万像素照片按2倍采样后的大小
+	 */
+	public static final long DEFAULT_MAX_PIXELS = 12L * 1000 * 1000;
+
+	/**
+	 * 输出规格
+	 */
+	public static class Spec {
+		/** 输出宽高不超过该框，0表示该方向不限制 */
+		public final int maxWidth;
+		public final int maxHeight;
+		public final Bitmap.CompressFormat format;
+		/** JPEG的目标字节数，见JpegCompressor */
+		public final int targetBytes;
+		/** PNG/WEBP的编码质量 */
+		public final int quality;
+
+		public Spec(int maxWidth, int maxHeight, Bitmap.CompressFormat format,
+				int targetBytes, int quality) {
+			this.maxWidth = maxWidth;
+			this.maxHeight = maxHeight;
+			this.format = format;
+			this.targetBytes = targetBytes;
+			this.quality = quality;
+		}
+
+		/**
+		 * 输出JPEG，质量自动选择使结果不超过targetBytes
+		 */
+		public static Spec jpeg(int maxWidth, int maxHeight, int targetBytes) {
+			return new Spec(maxWidth, maxHeight, Bitmap.CompressFormat.JPEG,
+					targetBytes, JpegCompressor.MAX_QUALITY);
+		}
+
+		String extension() {
+			switch (format) {
+			case PNG:
+				return ".png";
+			case WEBP:
+				return ".webp";
+			default:
+				return ".jpg";
+			}
+		}
+	}
+
+	/**
+	 * 回调，在工作线程中按完成顺序依次调用，不要做耗时操作
+	 */
+	public interface Listener {
+		void onResult(int completed, int total, Result result);
+	}
+
+	/**
+	 * 单张图片的处理结果
+	 */
+	public static class Result {
+		public final String srcPath;
+		/** 输出文件，失败时为null */
+		public final File file;
+		/** 失败原因，成功时为null */
+		public final Exception error;
+		public final int width;
+		public final int height;
+		public final long srcBytes;
+		public final long outBytes;
+		/** 等待像素额度的时间 */
+		public final long waitMs;
+		/** 解码和缩放的时间 */
+		public final long decodeMs;
+		public final long encodeMs;
+
+		Result(String srcPath, File file, Exception error, int width,
+				int height, long srcBytes, long outBytes, long waitMs,
+				long decodeMs, long encodeMs) {
+			this.srcPath = srcPath;
+			this.file = file;
+			this.error = error;
+			this.width = width;
+			this.height = height;
+			this.srcBytes = srcBytes;
+			this.outBytes = outBytes;
+			this.waitMs = waitMs;
+			this.decodeMs = decodeMs;
+			this.encodeMs = encodeMs;
+		}
+
+		static Result failed(String srcPath, Exception error) {
+			return new Result(srcPath, null, error, 0, 0, 0, 0, 0, 0, 0);
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+
+		/**
+		 * 解码加编码的时间，不含等待
+		 */
+		public long elapsedMs() {
+			return decodeMs + encodeMs;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null) {
+				return srcPath + " failed: " + error;
+			}
+			return srcPath + " -> " + width + "x" + height + " " + srcBytes
+					+ "B->" + outBytes + "B wait=" + waitMs + "ms decode="
+					+ decodeMs + "ms encode=" + encodeMs + "ms";
+		}
+	}
+
+	/**
+	 * 整批的汇总
+	 */
+	public static class Summary {
+		public int succeeded;
+		public int failed;
+		public int cancelled;
+		public long srcBytes;
+		public long outBytes;
+		public long pixels;
+		/** 从提交到全部结束的时间 */
+		public long elapsedMs;
+		/** 各图片解码、编码时间之和 */
+		public long totalDecodeMs;
+		public long totalEncodeMs;
+
+		/**
+		 * 每秒处理的图片数
+		 */
+		public float imagesPerSecond() {
+			return elapsedMs == 0 ? 0 : succeeded * 1000f / elapsedMs;
+		}
+
+		/**
+		 * 每秒输出的百万像素数
+		 */
+		public float megapixelsPerSecond() {
+			return elapsedMs == 0 ? 0 : pixels / 1000f / elapsedMs;
+		}
+
+		@Override
+		public String toString() {
+			return "succeeded=" + succeeded + " failed=" + failed
+					+ " cancelled=" + cancelled + " srcBytes=" + srcBytes
+					+ " outBytes=" + outBytes + " elapsedMs=" + elapsedMs
+					+ " decodeMs=" + totalDecodeMs + " encodeMs="
+					+ totalEncodeMs + " images/s=" + imagesPerSecond()
+					+ " MP/s=" + megapixelsPerSecond();
+		}
+	}
+
+	/**
+	 * 一次批量处理，可以按完成顺序取结果、取消或等待全部完成
+	 */
+	public static class Batch {
+		private final List<FutureTask<Result>> tasks = new ArrayList<FutureTask<Result>>();
+		private final LinkedBlockingQueue<Result> completed = new LinkedBlockingQueue<Result>();
+		private final long startNanos = System.nanoTime();
+		private final Summary summary = new Summary();
+		private int completedCount;
+		private int taken;
+		private volatile boolean cancelled;
+
+		public int size() {
+			return tasks.size();
+		}
+
+		/**
+		 * 取出下一个完成的结果，没有时等待；全部取完后返回null
+		 */
+		public synchronized Result take() throws InterruptedException {
+			if (taken == tasks.size()) {
+				return null;
+			}
+			Result result = completed.take();
+			taken++;
+			return result;
+		}
+
+		/**
+		 * 取消还未开始的图片，并中断正在等待额度的图片
+		 */
+		public void cancel() {
+			cancelled = true;
+			for (FutureTask<Result> task : tasks) {
+				task.cancel(true);
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * 等待全部结束并返回汇总
+		 */
+		public Summary await() throws InterruptedException {
+			for (FutureTask<Result> task : tasks) {
+				try {
+					task.get();
+				} catch (Exception e) {
+					// 失败和取消已经记在汇总中
+				}
+			}
+			synchronized (summary) {
+				// 被取消的任务可能还没有执行done()
+				while (summary.succeeded + summary.failed + summary.cancelled < tasks
+						.size()) {
+					summary.wait();
+				}
+				summary.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System
+						.nanoTime() - startNanos);
+				return summary;
+			}
+		}
+
+		void complete(Result result, Listener listener) {
+			synchronized (summary) {
+				if (result.isSuccess()) {
+					summary.succeeded++;
+					summary.srcBytes += result.srcBytes;
+					summary.outBytes += result.outBytes;
+					summary.pixels += (long) result.width * result.height;
+					summary.totalDecodeMs += result.decodeMs;
+					summary.totalEncodeMs += result.encodeMs;
+				} else if (result.error instanceof CancellationException) {
+					summary.cancelled++;
+				} else {
+					summary.failed++;
+				}
+				// 回调也在锁内，completed参数与回调顺序一致
+				completed.add(result);
+				completedCount++;
+				if (listener != null) {
+					listener.onResult(completedCount, tasks.size(), result);
+				}
+				summary.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * 同时处理的像素额度
+	 */
+	private static class PixelBudget {
+		private final long max;
+		private long used;
+
+		PixelBudget(long max) {
+			this.max = max;
+		}
+
+		synchronized void acquire(long pixels) throws InterruptedException {
+			// 没有其他图片在处理时直接放行，超大图片不会永远等待
+			while (used > 0 && used + pixels > max) {
+				wait();
+			}
+			used += pixels;
+		}
+
+		synchronized void release(long pixels) {
+			used -= pixels;
+			notifyAll();
+		}
+	}
+
+	private final ExecutorService executor;
+	private final PixelBudget budget;
+
+	/**
+	 * CPU核数个线程，默认像素上限
+	 */
+	public BatchTransformer() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PIXELS);
+	}
+
+	/**
+	 * @param parallelism
+	 *            工作线程数
+	 * @param maxPixels
+	 *            同时处理的像素总数上限
+	 */
+	public BatchTransformer(int parallelism, long maxPixels) {
+		budget = new PixelBudget(maxPixels);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+			executor = newForkJoinPool(parallelism);
+		} else {
+			executor = newThreadPool(parallelism);
+		}
+	}
+
+	/**
+	 * API 21起有ForkJoinPool：每个线程有自己的队列，空闲线程从其他线程的队列取任务
+	 */
+	private static ExecutorService newForkJoinPool(int parallelism) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ForkJoinPool(parallelism,
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+					@Override
+					public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+						ForkJoinWorkerThread thread = new ForkJoinWorkerThread(
+								pool) {
+						};
+						thread.setName("BatchTransformer-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, null, true);
+	}
+
+	private static ExecutorService newThreadPool(int parallelism) {
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism,
+				parallelism, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "BatchTransformer-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * 提交一批图片，立即返回。输出文件名为原文件名换成对应扩展名，
+	 * 同一批中重名时加序号。
+	 *
+	 * @param outputDir
+	 *            输出目录，不存在时创建
+	 */
+	public Batch transform(List<String> srcPaths, final Spec spec,
+			File outputDir, final Listener listener) {
+		if (!outputDir.exists()) {
+			outputDir.mkdirs();
+		}
+		final Batch batch = new Batch();
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < srcPaths.size(); i++) {
+			final String path = srcPaths.get(i);
+			final File dest = new File(outputDir, outputName(path, i, spec,
+					names));
+			batch.tasks.add(new FutureTask<Result>(new Callable<Result>() {
+				@Override
+				public Result call() throws Exception {
+					return transformOne(path, spec, dest);
+				}
+			}) {
+				@Override
+				protected void done() {
+					Result result;
+					try {
+						result = get();
+					} catch (CancellationException e) {
+						result = Result.failed(path, e);
+					} catch (Exception e) {
+						Throwable cause = e.getCause() != null ? e.getCause()
+								: e;
+						result = Result.failed(path,
+								cause instanceof Exception ? (Exception) cause
+										: new Exception(cause));
+					}
+					batch.complete(result, listener);
+				}
+			});
+		}
+		// 全部加入列表后再提交，回调中的total才是完整的
+		for (FutureTask<Result> task : batch.tasks) {
+			executor.execute(task);
+		}
+		return batch;
+	}
+
+	private static String outputName(String path, int index, Spec spec,
+			Set<String> used) {
+		String name = new File(path).getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		String fileName = name + spec.extension();
+		if (!used.add(fileName)) {
+			fileName = name + "-" + index + spec.extension();
+			used.add(fileName);
+		}
+		return fileName;
+	}
+
+	private Result transformOne(String path, Spec spec, File dest)
+			throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		DecodePlanner.Plan bounds = DecodePlanner.plan(path, 0, 0, false);
+		if (!bounds.isValid()) {
+			throw new IOException("cannot decode " + path);
+		}
+		int[] size = fitInside(bounds.srcWidth, bounds.srcHeight,
+				spec.maxWidth, spec.maxHeight);
+		// 按目标尺寸重新选采样率，解码结果宽高不小于目标尺寸
+		DecodePlanner.Plan plan = DecodePlanner.plan(bounds.srcWidth,
+				bounds.srcHeight, bounds.mimeType, size[0], size[1],
+				spec.format == Bitmap.CompressFormat.JPEG);
+		boolean scale = plan.outWidth() != size[0]
+				|| plan.outHeight() != size[1];
+		long pixels = (long) plan.outWidth() * plan.outHeight()
+				+ (scale ? (long) size[0] * size[1] : 0);
+
+		budget.acquire(pixels);
+		long acquired = System.nanoTime();
+		long decoded;
+		long outBytes;
+		BitmapPool pool = BitmapPool.getDefault();
+		Bitmap bitmap = null;
+		try {
+			bitmap = pool.decodeFile(path, plan);
+			if (bitmap == null) {
+				throw new IOException("cannot decode " + path);
+			}
+			if (scale) {
+				Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size[0],
+						size[1], true);
+				if (scaled != bitmap) {
+					pool.put(bitmap);
+					bitmap = scaled;
+				}
+			}
+			decoded = System.nanoTime();
+			outBytes = encode(bitmap, spec, dest);
+		} finally {
+			if (bitmap != null) {
+				pool.put(bitmap);
+			}
+			budget.release(pixels);
+		}
+		long end = System.nanoTime();
+		return new Result(path, dest, null, size[0], size[1],
+				new File(path).length(), outBytes, toMillis(acquired - start),
+				toMillis(decoded - acquired), toMillis(end - decoded));
+	}
+
+	/**
+	 * 保持宽高比缩小到框内，不放大
+	 */
+	static int[] fitInside(int width, int height, int maxWidth, int maxHeight) {
+		float scale = 1;
+		if (maxWidth > 0 && width > maxWidth) {
+			scale = maxWidth / (float) width;
+		}
+		if (maxHeight > 0 && height * scale > maxHeight) {
+			scale = maxHeight / (float) height;
+		}
+		return new int[] { Math.max(1, Math.round(width * scale)),
+				Math.max(1, Math.round(height * scale)) };
+	}
+
+	private static long encode(Bitmap bitmap, Spec spec, File dest)
+			throws IOException {
+		File tmp = new File(dest.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		boolean ok = false;
+		try {
+			if (spec.format == Bitmap.CompressFormat.JPEG) {
+				JpegCompressor.Result result = JpegCompressor.forTarget(
+						spec.targetBytes).compress(bitmap);
+				try {
+					out.write(result.array(), 0, result.size());
+				} finally {
+					result.release();
+				}
+			} else if (!bitmap.compress(spec.format, spec.quality, out)) {
+				throw new IOException("cannot encode " + dest);
+			}
+			ok = true;
+		} finally {
+			out.close();
+			if (!ok) {
+				tmp.delete();
+			}
+		}
+		if (!tmp.renameTo(dest)) {
+			tmp.delete();
+			throw new IOException("rename failed: " + dest);
+		}
+		return dest.length();
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * 不再接受新的批次，已提交的图片继续处理
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,227 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量上传图片。在固定大小的线程池中并行上传，每个线程上传完成后
+ * 连接留在keep-alive池中，后续文件复用已有连接，不再每张图片重新建连。
+ */
+public class BatchUploader {
+
+	/**
+	 * 进度回调，在上传线程中调用
+	 */
+	public interface ProgressListener {
+		void onProgress(int completed, int total, UploadResult result);
+	}
+
+	/**
+	 * 单个文件的上传结果
+	 */
+	public static class UploadResult {
+		public final String filePath;
+		/** 服务器响应，失败时为null */
+		public final String response;
+		/** 失败原因，成功时为null */
+		public final Exception error;
+		public final long bytes;
+		public final long elapsedMs;
+
+		UploadResult(String filePath, String response, Exception error,
+				long bytes, long elapsedMs) {
+			this.filePath = filePath;
+			this.response = response;
+			this.error = error;
+			this.bytes = bytes;
+			this.elapsedMs = elapsedMs;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * 整批上传的汇总
+	 */
+	public static class Summary {
+		public int succeeded;
+		public int failed;
+		public int cancelled;
+		public long bytes;
+		/** 从提交到全部结束的时间 */
+		public long elapsedMs;
+		/** 各文件上传耗时之和 */
+		public long totalUploadMs;
+
+		@Override
+		public String toString() {
+			return "succeeded=" + succeeded + " failed=" + failed
+					+ " cancelled=" + cancelled + " bytes=" + bytes
+					+ " elapsedMs=" + elapsedMs + " totalUploadMs="
+					+ totalUploadMs;
+		}
+	}
+
+	/**
+	 * 一次批量上传，可以取消或等待全部完成
+	 */
+	public static class Batch {
+		private final List<Future<UploadResult>> futures = new ArrayList<Future<UploadResult>>();
+		private final List<MultipartUploader.Cancellation> cancellations = new ArrayList<MultipartUploader.Cancellation>();
+		private final long startNanos = System.nanoTime();
+		private volatile boolean cancelled;
+
+		/**
+		 * 与提交顺序对应的每个文件的结果
+		 */
+		public List<Future<UploadResult>> getFutures() {
+			return Collections.unmodifiableList(futures);
+		}
+
+		/**
+		 * 取消还未开始的上传，并断开正在进行的上传的连接。
+		 * 被取消的文件同样回调ProgressListener，结果的error为CancellationException，
+		 * completed最终总会到达total。
+		 */
+		public void cancel() {
+			cancelled = true;
+			for (MultipartUploader.Cancellation cancellation : cancellations) {
+				cancellation.cancel();
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * 等待全部结束并返回汇总
+		 */
+		public Summary await() throws InterruptedException {
+			Summary summary = new Summary();
+			for (Future<UploadResult> future : futures) {
+				try {
+					UploadResult result = future.get();
+					if (result.isSuccess()) {
+						summary.succeeded++;
+						summary.bytes += result.bytes;
+					} else if (result.error instanceof CancellationException) {
+						summary.cancelled++;
+					} else {
+						summary.failed++;
+					}
+					summary.totalUploadMs += result.elapsedMs;
+				} catch (CancellationException e) {
+					summary.cancelled++;
+				} catch (ExecutionException e) {
+					summary.failed++;
+				}
+			}
+			summary.elapsedMs = TimeUnit.NANOSECONDS.toMillis(System
+					.nanoTime() - startNanos);
+			return summary;
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param parallelism
+	 *            同时上传的文件数
+	 */
+	public BatchUploader(int parallelism) {
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(parallelism, parallelism, 30,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "BatchUploader-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 提交一批文件，立即返回。每个文件单独一个请求，字段名与
+	 * HttpUploadImage.uploadImage相同。
+	 */
+	public Batch upload(List<String> filePaths, final String url,
+			final ProgressListener listener) {
+		final int total = filePaths.size();
+		final AtomicInteger completed = new AtomicInteger();
+		final Batch batch = new Batch();
+		for (final String path : filePaths) {
+			final MultipartUploader.Cancellation cancellation = new MultipartUploader.Cancellation();
+			batch.cancellations.add(cancellation);
+			// 取消时不cancel Future：排队中的任务照常执行，直接返回取消结果并回调进度
+			batch.futures.add(executor.submit(new Callable<UploadResult>() {
+				@Override
+				public UploadResult call() {
+					UploadResult result;
+					if (cancellation.isCancelled()) {
+						result = new UploadResult(path, null,
+								new CancellationException(), 0, 0);
+					} else {
+						result = uploadOne(url, path, cancellation);
+					}
+					int done = completed.incrementAndGet();
+					if (listener != null) {
+						listener.onProgress(done, total, result);
+					}
+					return result;
+				}
+			}));
+		}
+		return batch;
+	}
+
+	private static UploadResult uploadOne(String url, String path,
+			MultipartUploader.Cancellation cancellation) {
+		long start = System.nanoTime();
+		File file = new File(path);
+		try {
+			MultipartBody body = new MultipartBody().addFile("uploadedfile"
+					+ path, file);
+			String response = MultipartUploader.upload(url, body,
+					cancellation);
+			return new UploadResult(path, response, null, file.length(),
+					elapsedMs(start));
+		} catch (Exception e) {
+			Exception error = e;
+			if (cancellation.isCancelled()) {
+				// 断开连接后抛出的IOException算作取消
+				error = new CancellationException();
+				error.initCause(e);
+			}
+			return new UploadResult(path, null, error, 0, elapsedMs(start));
+		}
+	}
+
+	private static long elapsedMs(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * 不再接受新的批次，已提交的上传继续进行
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,194 @@
+package com.finddreams.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.SimpleTimeZone;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * 把LogWriter输出的二进制日志(.blog)还原为文本格式:
+ * [yyyy-MM-dd HH:mm:ss] tag msg
+ *
+ * 命令行用法: java com.finddreams.log.BinaryLogDecoder 输入文件 [输出文件]
+ * 不指定输出文件时输出到标准输出。
+ */
+public class BinaryLogDecoder {
+
+    private final ArrayList<String> tags = new ArrayList<String>();
+    private final Inflater inflater = new Inflater();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat(
+            "[yyyy-MM-dd HH:mm:ss]", Locale.SIMPLIFIED_CHINESE);
+    private long lastTime;
+    private boolean session;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: BinaryLogDecoder <input.blog[.gz]> [output.log]");
+            System.exit(1);
+        }
+        InputStream in = new FileInputStream(args[0]);
+        if (args[0].endsWith(".gz")) {
+            // LogRetention压缩过的段
+            in = new GZIPInputStream(in);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                args.length > 1 ? new FileOutputStream(args[1]) : System.out,
+                "UTF-8"));
+        try {
+            new BinaryLogDecoder().decode(in, out);
+        } finally {
+            in.close();
+            out.flush();
+            if (args.length > 1) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 解码整个文件。文件末尾不完整的块(进程被杀时写了一半)会被忽略。
+     */
+    public void decode(InputStream input, Writer out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                input));
+        byte[] magic = new byte[BinaryLogEncoder.MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException e) {
+            return;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != BinaryLogEncoder.MAGIC[i]) {
+                throw new IOException("not a binary log file");
+            }
+        }
+        try {
+            int type;
+            while ((type = in.read()) != -1) {
+                switch (type) {
+                case BinaryLogEncoder.FRAME_HEADER:
+                    readHeader(in);
+                    break;
+                case BinaryLogEncoder.FRAME_BLOCK: {
+                    byte[] block = new byte[(int) readVarint(in)];
+                    in.readFully(block);
+                    decodeBlock(block, block.length, out);
+                    break;
+                }
+                case BinaryLogEncoder.FRAME_DEFLATE_BLOCK: {
+                    byte[] block = new byte[(int) readVarint(in)];
+                    byte[] stored = new byte[(int) readVarint(in)];
+                    in.readFully(stored);
+                    decodeBlock(block, inflate(stored, block), out);
+                    break;
+                }
+                default:
+                    throw new IOException("unknown frame type: " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // 最后一个块不完整
+        }
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        int version = in.read();
+        if (version != BinaryLogEncoder.VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        int offsetMinutes = (int) unzigzag(readVarint(in));
+        lastTime = in.readLong();
+        tags.clear();
+        timeFormat.setTimeZone(new SimpleTimeZone(
+                offsetMinutes * 60000, "GMT"));
+        session = true;
+    }
+
+    private int inflate(byte[] stored, byte[] block) throws IOException {
+        inflater.reset();
+        inflater.setInput(stored);
+        try {
+            int length = 0;
+            while (length < block.length && !inflater.finished()) {
+                int n = inflater.inflate(block, length, block.length - length);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += n;
+            }
+            return length;
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block: " + e.getMessage());
+        }
+    }
+
+    private void decodeBlock(byte[] block, int length, Writer out)
+            throws IOException {
+        if (!session) {
+            throw new IOException("block before session header");
+        }
+        int[] pos = new int[1];
+        while (pos[0] < length) {
+            int id = (int) readVarint(block, pos);
+            if (id == BinaryLogEncoder.RECORD_TAG) {
+                tags.add(readString(block, pos));
+                continue;
+            }
+            lastTime += unzigzag(readVarint(block, pos));
+            String msg = readString(block, pos);
+            out.write(timeFormat.format(new Date(lastTime)));
+            out.write(' ');
+            out.write(tags.get(id - 1));
+            out.write(' ');
+            out.write(msg);
+            out.write("\r\n");
+        }
+    }
+
+    private static String readString(byte[] block, int[] pos) {
+        int length = (int) readVarint(block, pos);
+        String s = new String(block, pos[0], length, BinaryLogEncoder.UTF_8);
+        pos[0] += length;
+        return s;
+    }
+
+    private static long readVarint(byte[] block, int[] pos) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = block[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,175 @@
+package com.finddreams.log;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.zip.Deflater;
+
+/**
+ * 二进制日志格式的编码器，只在LogWriter的写线程中使用。
+ *
+ * <pre>
+ * 文件   := MAGIC frame*
+ * frame  := 'H' version(1) zoneOffsetMinutes(varint,zigzag) baseTime(8)  会话头，重置tag字典和时间基准
+ *         | 'B' length(varint) records                                  未压缩块
+ *         | 'Z' rawLength(varint) length(varint) deflate(records)       压缩块
+ * record := 0 length(varint) utf8                                        定义下一个tag编号(从1开始)
+ *         | tagId(varint) timeDelta(varint,zigzag) length(varint) utf8    一条日志
+ * </pre>
+ *
+ * timeDelta是相对上一条日志(或会话头baseTime)的毫秒差。
+ */
+final class BinaryLogEncoder {
+
+    static final byte[] MAGIC = { 'F', 'D', 'L', 'G' };
+    static final int VERSION = 1;
+    static final int FRAME_HEADER = 'H';
+    static final int FRAME_BLOCK = 'B';
+    static final int FRAME_DEFLATE_BLOCK = 'Z';
+    static final int RECORD_TAG = 0;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int BLOCK_SIZE = 16 * 1024;
+    private static final int MAX_TAGS = 4096;
+
+    interface Sink {
+        void write(byte[] b, int off, int len);
+    }
+
+    private final Deflater deflater;
+    private final HashMap<String, Integer> tags = new HashMap<String, Integer>();
+    private byte[] block = new byte[BLOCK_SIZE + 1024];
+    private int blockLength;
+    private byte[] deflated;
+    private final byte[] frame = new byte[32];
+    private long lastTime;
+
+    BinaryLogEncoder(boolean compress) {
+        deflater = compress ? new Deflater() : null;
+        deflated = compress ? new byte[BLOCK_SIZE + 1024] : null;
+    }
+
+    /**
+     * 打开文件时调用，写入会话头。LogWriter不会在非空的文件后追加，
+     * emptyFile为false时文件末尾必须是完整的frame。
+     */
+    void startFile(long time, boolean emptyFile, Sink out) {
+        blockLength = 0;
+        if (emptyFile) {
+            out.write(MAGIC, 0, MAGIC.length);
+        }
+        startSession(time, out);
+    }
+
+    private void startSession(long time, Sink out) {
+        tags.clear();
+        lastTime = time;
+        int n = 0;
+        frame[n++] = (byte) FRAME_HEADER;
+        frame[n++] = (byte) VERSION;
+        n = putVarint(frame, n,
+                zigzag(TimeZone.getDefault().getOffset(time) / 60000));
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            frame[n++] = (byte) (time >>> shift);
+        }
+        out.write(frame, 0, n);
+    }
+
+    void append(long time, String tag, String msg, Sink out) {
+        if (tag == null) {
+            tag = "null";
+        }
+        Integer id = tags.get(tag);
+        if (id == null) {
+            if (tags.size() >= MAX_TAGS) {
+                finishBlock(out);
+                startSession(time, out);
+            }
+            id = tags.size() + 1;
+            tags.put(tag, id);
+            putBytes(RECORD_TAG, tag.getBytes(UTF_8));
+        }
+        byte[] content = String.valueOf(msg).getBytes(UTF_8);
+        ensureCapacity(30 + content.length);
+        blockLength = putVarint(block, blockLength, id);
+        blockLength = putVarint(block, blockLength, zigzag(time - lastTime));
+        lastTime = time;
+        blockLength = putVarint(block, blockLength, content.length);
+        System.arraycopy(content, 0, block, blockLength, content.length);
+        blockLength += content.length;
+    }
+
+    private void putBytes(int type, byte[] bytes) {
+        ensureCapacity(20 + bytes.length);
+        blockLength = putVarint(block, blockLength, type);
+        blockLength = putVarint(block, blockLength, bytes.length);
+        System.arraycopy(bytes, 0, block, blockLength, bytes.length);
+        blockLength += bytes.length;
+    }
+
+    int pendingBytes() {
+        return blockLength;
+    }
+
+    /**
+     * 把当前块作为一个frame输出，可压缩时输出压缩块。
+     */
+    void finishBlock(Sink out) {
+        if (blockLength == 0) {
+            return;
+        }
+        if (deflater != null) {
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == deflated.length) {
+                    byte[] bigger = new byte[deflated.length * 2];
+                    System.arraycopy(deflated, 0, bigger, 0, length);
+                    deflated = bigger;
+                }
+                length += deflater.deflate(deflated, length, deflated.length
+                        - length);
+            }
+            deflater.reset();
+            if (length < blockLength) {
+                int n = 0;
+                frame[n++] = (byte) FRAME_DEFLATE_BLOCK;
+                n = putVarint(frame, n, blockLength);
+                n = putVarint(frame, n, length);
+                out.write(frame, 0, n);
+                out.write(deflated, 0, length);
+                blockLength = 0;
+                return;
+            }
+        }
+        int n = 0;
+        frame[n++] = (byte) FRAME_BLOCK;
+        n = putVarint(frame, n, blockLength);
+        out.write(frame, 0, n);
+        out.write(block, 0, blockLength);
+        blockLength = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (blockLength + extra > block.length) {
+            byte[] bigger = new byte[Math.max(block.length * 2, blockLength
+                    + extra)];
+            System.arraycopy(block, 0, bigger, 0, blockLength);
+            block = bigger;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int putVarint(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+}
@@ -0,0 +1,147 @@
+package com.lhdz.util;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * 解码后图片的内存缓存，按占用字节数做LRU淘汰，线程安全。
+ * 键包含文件修改时间，原图被替换后不会命中旧的图片。
+ * 缓存中的Bitmap会被多处共用，取出后不要调用recycle()。
+ */
+public class BitmapMemoryCache {
+
+	private static BitmapMemoryCache sDefault;
+
+	/**
+	 * 缓存键：路径、修改时间、目标尺寸、采样率，以及区分不同处理方式的variant
+	 */
+	public static final class Key {
+		final String path;
+		final long lastModified;
+		final int targetSize;
+		final int sampleSize;
+		final String variant;
+
+		/**
+		 * @param sampleSize
+		 *            0表示由目标尺寸决定
+		 * @param variant
+		 *            同一目标尺寸下不同的处理方式，例如是否经过质量压缩
+		 */
+		public Key(String path, long lastModified, int targetSize,
+				int sampleSize, String variant) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.targetSize = targetSize;
+			this.sampleSize = sampleSize;
+			this.variant = variant;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return lastModified == other.lastModified
+					&& targetSize == other.targetSize
+					&& sampleSize == other.sampleSize
+					&& path.equals(other.path)
+					&& (variant == null ? other.variant == null : variant
+							.equals(other.variant));
+		}
+
+		@Override
+		public int hashCode() {
+			int result = path.hashCode();
+			result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+			result = 31 * result + targetSize;
+			result = 31 * result + sampleSize;
+			result = 31 * result + (variant == null ? 0 : variant.hashCode());
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return path + "@" + lastModified + "[" + targetSize + "/"
+					+ sampleSize + "/" + variant + "]";
+		}
+	}
+
+	private final LruCache<Key, Bitmap> cache;
+
+	/**
+	 * @param maxBytes
+	 *            缓存中所有图片占用内存的上限
+	 */
+	public BitmapMemoryCache(int maxBytes) {
+		cache = new LruCache<Key, Bitmap>(maxBytes) {
+			@Override
+			protected int sizeOf(Key key, Bitmap value) {
+				return value.getRowBytes() * value.getHeight();
+			}
+		};
+	}
+
+	/**
+	 * 默认实例，容量为应用最大内存的1/8
+	 */
+	public static synchronized BitmapMemoryCache getDefault() {
+		if (sDefault == null) {
+			sDefault = new BitmapMemoryCache((int) Math.min(Integer.MAX_VALUE,
+					Runtime.getRuntime().maxMemory() / 8));
+		}
+		return sDefault;
+	}
+
+	public Bitmap get(Key key) {
+		return cache.get(key);
+	}
+
+	public void put(Key key, Bitmap bitmap) {
+		if (bitmap != null) {
+			cache.put(key, bitmap);
+		}
+	}
+
+	public void remove(Key key) {
+		cache.remove(key);
+	}
+
+	public void evictAll() {
+		cache.evictAll();
+	}
+
+	/**
+	 * 当前占用字节数
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	public int maxSize() {
+		return cache.maxSize();
+	}
+
+	public int hitCount() {
+		return cache.hitCount();
+	}
+
+	public int missCount() {
+		return cache.missCount();
+	}
+
+	public int evictionCount() {
+		return cache.evictionCount();
+	}
+
+	@Override
+	public String toString() {
+		return "BitmapMemoryCache[size=" + size() + "/" + maxSize() + " hits="
+				+ hitCount() + " misses=" + missCount() + " evictions="
+				+ evictionCount() + "]";
+	}
+}
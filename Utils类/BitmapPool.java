@@ -0,0 +1,304 @@
+package com.lhdz.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * 可复用Bitmap池，解码时通过BitmapFactory.Options.inBitmap直接写入池中的Bitmap，
+ * 不再每次分配新的像素内存。
+ *
+ * 按占用字节数分组：4.4及以上只要池中Bitmap不小于所需大小即可复用(最多大8倍)；
+ * 3.0~4.3要求宽高、格式完全相同且inSampleSize为1。总字节数超过上限时先淘汰最大的一组。
+ * 只能放入不再被任何地方引用的Bitmap，内存缓存中的图片可能还在显示，不要放进来。
+ */
+public class BitmapPool {
+
+	/**
+	 * 复用的Bitmap最多比所需大小大几倍
+	 */
+	private static final int MAX_SIZE_MULTIPLE = 8;
+
+	private static BitmapPool sDefault;
+
+	private final TreeMap<Integer, ArrayDeque<Bitmap>> groups = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+	private final long maxBytes;
+	private long currentBytes;
+	private int hitCount;
+	private int missCount;
+	private int putCount;
+	private int evictionCount;
+
+	/**
+	 * @param maxBytes
+	 *            池中所有Bitmap占用内存的上限
+	 */
+	public BitmapPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * 默认实例，容量为应用最大内存的1/16
+	 */
+	public static synchronized BitmapPool getDefault() {
+		if (sDefault == null) {
+			sDefault = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+		}
+		return sDefault;
+	}
+
+	/**
+	 * 3.0以下没有inBitmap
+	 */
+	public static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+	}
+
+	/**
+	 * 取出可以容纳width*height像素的Bitmap，没有时返回null。内容未清空。
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		if (!isSupported() || width <= 0 || height <= 0) {
+			return null;
+		}
+		if (config == null) {
+			config = Bitmap.Config.ARGB_8888;
+		}
+		int required = width * height * bytesPerPixel(config);
+		Bitmap bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? takeAtLeast(
+				required, width, height, config) : takeExact(required, width,
+				height, config);
+		if (bitmap == null) {
+			missCount++;
+		} else {
+			hitCount++;
+			currentBytes -= byteCount(bitmap);
+		}
+		return bitmap;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private Bitmap takeAtLeast(int required, int width, int height,
+			Bitmap.Config config) {
+		Map.Entry<Integer, ArrayDeque<Bitmap>> entry = groups
+				.ceilingEntry(required);
+		if (entry == null
+				|| entry.getKey() > (long) required * MAX_SIZE_MULTIPLE) {
+			return null;
+		}
+		Bitmap bitmap = poll(entry.getKey(), entry.getValue());
+		bitmap.reconfigure(width, height, config);
+		return bitmap;
+	}
+
+	private Bitmap takeExact(int required, int width, int height,
+			Bitmap.Config config) {
+		ArrayDeque<Bitmap> group = groups.get(required);
+		if (group == null) {
+			return null;
+		}
+		Iterator<Bitmap> it = group.iterator();
+		while (it.hasNext()) {
+			Bitmap bitmap = it.next();
+			if (bitmap.getWidth() == width && bitmap.getHeight() == height
+					&& bitmap.getConfig() == config) {
+				it.remove();
+				if (group.isEmpty()) {
+					groups.remove(required);
+				}
+				return bitmap;
+			}
+		}
+		return null;
+	}
+
+	private Bitmap poll(int size, ArrayDeque<Bitmap> group) {
+		Bitmap bitmap = group.pollLast();
+		if (group.isEmpty()) {
+			groups.remove(size);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * 放回不再使用的Bitmap。不可变、已回收或超过容量的直接recycle()。
+	 */
+	public void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		int size = byteCount(bitmap);
+		if (!isSupported() || !bitmap.isMutable() || size > maxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			ArrayDeque<Bitmap> group = groups.get(size);
+			if (group == null) {
+				group = new ArrayDeque<Bitmap>();
+				groups.put(size, group);
+			}
+			group.addLast(bitmap);
+			currentBytes += size;
+			putCount++;
+			while (currentBytes > maxBytes) {
+				Map.Entry<Integer, ArrayDeque<Bitmap>> largest = groups
+						.lastEntry();
+				Bitmap evicted = poll(largest.getKey(), largest.getValue());
+				currentBytes -= largest.getKey();
+				evictionCount++;
+				evicted.recycle();
+			}
+		}
+	}
+
+	/**
+	 * 按解码计划解码文件，尽量写入池中的Bitmap。返回的Bitmap是可变的，
+	 * 不再使用时可以put()回池中。
+	 */
+	public Bitmap decodeFile(String path, DecodePlanner.Plan plan) {
+		BitmapFactory.Options options = plan.toOptions();
+		if (!isSupported()) {
+			return BitmapFactory.decodeFile(path, options);
+		}
+		if (canReuse(plan.mimeType, plan.sampleSize)) {
+			setReuse(options,
+					get(plan.outWidth(), plan.outHeight(), plan.config));
+		}
+		try {
+			return BitmapFactory.decodeFile(path, setMutable(options));
+		} catch (IllegalArgumentException e) {
+			// 池中Bitmap与图片不兼容，放回后不复用重新解码
+			return BitmapFactory.decodeFile(path, dropReuse(options));
+		}
+	}
+
+	/**
+	 * 解码内存中的图片数据，尽量写入池中的Bitmap
+	 */
+	public Bitmap decodeByteArray(byte[] data, int offset, int length,
+			Bitmap.Config config) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inPreferredConfig = config;
+		if (!isSupported()) {
+			return BitmapFactory.decodeByteArray(data, offset, length, options);
+		}
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, offset, length, options);
+		options.inJustDecodeBounds = false;
+		if (canReuse(options.outMimeType, 1)) {
+			setReuse(options, get(options.outWidth, options.outHeight, config));
+		}
+		try {
+			return BitmapFactory.decodeByteArray(data, offset, length,
+					setMutable(options));
+		} catch (IllegalArgumentException e) {
+			return BitmapFactory.decodeByteArray(data, offset, length,
+					dropReuse(options));
+		}
+	}
+
+	/**
+	 * 4.4以下只支持JPEG、PNG，且不能降采样
+	 */
+	private static boolean canReuse(String mimeType, int sampleSize) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return true;
+		}
+		return sampleSize == 1
+				&& ("image/jpeg".equals(mimeType) || "image/png"
+						.equals(mimeType));
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static void setReuse(BitmapFactory.Options options, Bitmap bitmap) {
+		options.inBitmap = bitmap;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static BitmapFactory.Options setMutable(
+			BitmapFactory.Options options) {
+		options.inMutable = true;
+		return options;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private BitmapFactory.Options dropReuse(BitmapFactory.Options options) {
+		put(options.inBitmap);
+		options.inBitmap = null;
+		return options;
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static int byteCount(Bitmap bitmap) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return bitmap.getAllocationByteCount();
+		}
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	private static int bytesPerPixel(Bitmap.Config config) {
+		switch (config) {
+		case ALPHA_8:
+			return 1;
+		case RGB_565:
+		case ARGB_4444:
+			return 2;
+		default:
+			return 4;
+		}
+	}
+
+	/**
+	 * 回收池中所有Bitmap
+	 */
+	public synchronized void clear() {
+		for (ArrayDeque<Bitmap> group : groups.values()) {
+			for (Bitmap bitmap : group) {
+				bitmap.recycle();
+			}
+		}
+		groups.clear();
+		currentBytes = 0;
+	}
+
+	/**
+	 * 当前占用字节数
+	 */
+	public synchronized long size() {
+		return currentBytes;
+	}
+
+	public long maxSize() {
+		return maxBytes;
+	}
+
+	public synchronized int hitCount() {
+		return hitCount;
+	}
+
+	public synchronized int missCount() {
+		return missCount;
+	}
+
+	public synchronized int putCount() {
+		return putCount;
+	}
+
+	public synchronized int evictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BitmapPool[size=" + currentBytes + "/" + maxBytes + " hits="
+				+ hitCount + " misses=" + missCount + " puts=" + putCount
+				+ " evictions=" + evictionCount + "]";
+	}
+}
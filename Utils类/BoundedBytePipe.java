@@ -0,0 +1,156 @@
+package com.lhdz.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * 固定容量的字节管道，一个线程写、另一个线程读。缓冲区满时写方阻塞，
+ * 空时读方阻塞，内存占用不超过容量。
+ * 写方出错时调用fail()，读方会收到同样的异常；读方关闭后写方收到IOException。
+ */
+public class BoundedBytePipe {
+
+	private final byte[] buffer;
+	private int readPos;
+	private int count;
+	private boolean writerClosed;
+	private boolean readerClosed;
+	private Throwable failure;
+	private long totalBytes;
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return BoundedBytePipe.this.read(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			closeReader();
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			BoundedBytePipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			closeWriter();
+		}
+	};
+
+	public BoundedBytePipe(int capacity) {
+		buffer = new byte[capacity];
+	}
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	/**
+	 * 已写入的总字节数
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * 写方出错，读方读完已有数据后抛出该异常
+	 */
+	public synchronized void fail(Throwable cause) {
+		failure = cause;
+		writerClosed = true;
+		notifyAll();
+	}
+
+	private synchronized int read(byte[] b, int off, int len)
+			throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (count == 0) {
+			if (failure != null) {
+				IOException e = new IOException("pipe writer failed");
+				e.initCause(failure);
+				throw e;
+			}
+			if (writerClosed) {
+				return -1;
+			}
+			await();
+		}
+		int n = Math.min(len, count);
+		int first = Math.min(n, buffer.length - readPos);
+		System.arraycopy(buffer, readPos, b, off, first);
+		System.arraycopy(buffer, 0, b, off + first, n - first);
+		readPos = (readPos + n) % buffer.length;
+		count -= n;
+		notifyAll();
+		return n;
+	}
+
+	private synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		while (len > 0) {
+			while (count == buffer.length && !readerClosed) {
+				await();
+			}
+			if (readerClosed) {
+				throw new IOException("pipe closed by reader");
+			}
+			if (writerClosed) {
+				throw new IOException("pipe closed");
+			}
+			int writePos = (readPos + count) % buffer.length;
+			int n = Math.min(len, buffer.length - count);
+			int first = Math.min(n, buffer.length - writePos);
+			System.arraycopy(b, off, buffer, writePos, first);
+			System.arraycopy(b, off + first, buffer, 0, n - first);
+			count += n;
+			totalBytes += n;
+			off += n;
+			len -= n;
+			notifyAll();
+		}
+	}
+
+	private synchronized void closeWriter() {
+		writerClosed = true;
+		notifyAll();
+	}
+
+	private synchronized void closeReader() {
+		readerClosed = true;
+		count = 0;
+		notifyAll();
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
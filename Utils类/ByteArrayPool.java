@@ -0,0 +1,124 @@
+package com.lhdz.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * 编码输出用的byte[]池。数组长度按2的幂分级(4KB~4MB)，取出时返回不小于
+ * 所需长度的最小一级；总字节数超过上限时放回的数组直接丢弃。
+ */
+public class ByteArrayPool {
+
+	public static final int MIN_ARRAY_SIZE = 4 * 1024;
+	public static final int MAX_ARRAY_SIZE = 4 * 1024 * 1024;
+
+	private static final int CLASS_COUNT = 11;
+
+	private static ByteArrayPool sDefault;
+
+	private final ArrayDeque<byte[]>[] classes;
+	private final long maxBytes;
+	private long currentBytes;
+	private int hitCount;
+	private int missCount;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ByteArrayPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+		classes = new ArrayDeque[CLASS_COUNT];
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			classes[i] = new ArrayDeque<byte[]>();
+		}
+	}
+
+	/**
+	 * 默认实例，容量4MB
+	 */
+	public static synchronized ByteArrayPool getDefault() {
+		if (sDefault == null) {
+			sDefault = new ByteArrayPool(4 * 1024 * 1024);
+		}
+		return sDefault;
+	}
+
+	/**
+	 * 返回长度不小于minSize的数组，内容未清空。超过MAX_ARRAY_SIZE时直接分配。
+	 */
+	public byte[] get(int minSize) {
+		int index = classIndex(minSize);
+		if (index < 0) {
+			return new byte[minSize];
+		}
+		synchronized (this) {
+			byte[] array = classes[index].pollLast();
+			if (array != null) {
+				hitCount++;
+				currentBytes -= array.length;
+				return array;
+			}
+			missCount++;
+		}
+		return new byte[MIN_ARRAY_SIZE << index];
+	}
+
+	/**
+	 * 放回数组，长度不是某一级的数组直接丢弃
+	 */
+	public void put(byte[] array) {
+		if (array == null) {
+			return;
+		}
+		int index = classIndex(array.length);
+		if (index < 0 || (MIN_ARRAY_SIZE << index) != array.length) {
+			return;
+		}
+		synchronized (this) {
+			if (currentBytes + array.length <= maxBytes) {
+				classes[index].addLast(array);
+				currentBytes += array.length;
+			}
+		}
+	}
+
+	private static int classIndex(int size) {
+		if (size > MAX_ARRAY_SIZE) {
+			return -1;
+		}
+		int index = 0;
+		while ((MIN_ARRAY_SIZE << index) < size) {
+			index++;
+		}
+		return index;
+	}
+
+	public synchronized void clear() {
+		for (ArrayDeque<byte[]> deque : classes) {
+			deque.clear();
+		}
+		currentBytes = 0;
+	}
+
+	/**
+	 * 当前占用字节数
+	 */
+	public synchronized long size() {
+		return currentBytes;
+	}
+
+	public long maxSize() {
+		return maxBytes;
+	}
+
+	public synchronized int hitCount() {
+		return hitCount;
+	}
+
+	public synchronized int missCount() {
+		return missCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ByteArrayPool[size=" + currentBytes + "/" + maxBytes
+				+ " hits=" + hitCount + " misses=" + missCount + "]";
+	}
+}
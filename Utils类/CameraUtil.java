@@ -1,17 +1,13 @@
 package com.lhdz.util;
 
 import java.io.File;
+import java.util.List;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
-import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Build;
-import android.os.Environment;
-import android.provider.DocumentsContract;
 import android.provider.MediaStore;
 import android.widget.Toast;
 
@@ -113,73 +109,30 @@ public class CameraUtil {
 	 * @return
 	 */
 	public static String getPhotoPathByLocalUri(Context context, Intent data) {
-		Uri selectedImage = data.getData();
-		String[] filePathColumn = { MediaStore.Images.Media.DATA };
-		Cursor cursor = context.getContentResolver().query(selectedImage,
-				filePathColumn, null, null, null);
-		cursor.moveToFirst();
-		int columnIndex = cursor.getColumnIndex(filePathColumn[0]);
-		String picturePath = cursor.getString(columnIndex);
-		cursor.close();
-		return picturePath;
+		return MediaPathResolver.getDefault(context).resolve(data.getData());
 	}
 
 	/**
-	 * 获取图片的绝对路径
+	 * 获取图片的绝对路径，结果有缓存，见MediaPathResolver
 	 * 
 	 * @param context
 	 * @param imageUri
 	 * @return
 	 */
-	@TargetApi(Build.VERSION_CODES.KITKAT)
 	public static String getImageAbsolutePath(Activity context, Uri imageUri) {
 		if (context == null || imageUri == null)
 			return null;
-		if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT
-				&& DocumentsContract.isDocumentUri(context, imageUri)) {
-			if (isExternalStorageDocument(imageUri)) {
-				String docId = DocumentsContract.getDocumentId(imageUri);
-				String[] split = docId.split(":");
-				String type = split[0];
-				if ("primary".equalsIgnoreCase(type)) {
-					return Environment.getExternalStorageDirectory() + "/"
-							+ split[1];
-				}
-			} else if (isDownloadsDocument(imageUri)) {
-				String id = DocumentsContract.getDocumentId(imageUri);
-				Uri contentUri = ContentUris.withAppendedId(
-						Uri.parse("content://downloads/public_downloads"),
-						Long.valueOf(id));
-				return getDataColumn(context, contentUri, null, null);
-			} else if (isMediaDocument(imageUri)) {
-				String docId = DocumentsContract.getDocumentId(imageUri);
-				String[] split = docId.split(":");
-				String type = split[0];
-				Uri contentUri = null;
-				if ("image".equals(type)) {
-					contentUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-				} else if ("video".equals(type)) {
-					contentUri = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
-				} else if ("audio".equals(type)) {
-					contentUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-				}
-				String selection = MediaStore.Images.Media._ID + "=?";
-				String[] selectionArgs = new String[] { split[1] };
-				return getDataColumn(context, contentUri, selection,
-						selectionArgs);
-			}
-		} // MediaStore (and general)
-		else if ("content".equalsIgnoreCase(imageUri.getScheme())) {
-			// Return the remote address
-			if (isGooglePhotosUri(imageUri))
-				return imageUri.getLastPathSegment();
-			return getDataColumn(context, imageUri, null, null);
-		}
-		// File
-		else if ("file".equalsIgnoreCase(imageUri.getScheme())) {
-			return imageUri.getPath();
-		}
-		return null;
+		return MediaPathResolver.getDefault(context).resolve(imageUri);
+	}
+
+	/**
+	 * 批量获取多选图片的绝对路径，同一张表中的图片只查询一次
+	 * 
+	 * @return 与imageUris顺序对应的路径，找不到的为null
+	 */
+	public static List<String> getImageAbsolutePaths(Context context,
+			List<Uri> imageUris) {
+		return MediaPathResolver.getDefault(context).resolveAll(imageUris);
 	}
 
 	public static String getDataColumn(Context context, Uri uri,
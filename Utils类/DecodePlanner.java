@@ -0,0 +1,209 @@
+package com.lhdz.util;
+
+import java.io.IOException;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+
+/**
+ * 解码规划：先只读图片尺寸，再按目标尺寸选择采样率和像素格式。
+ *
+ * 解码器只支持2的幂采样率，其他值会被向下取整，所以这里直接计算
+ * 满足目标尺寸的最大2的幂，而不是min / baseSize这种任意值。
+ * JPEG没有透明通道，允许时使用RGB_565，内存减半。
+ * 超大图片只需显示一部分时，用BitmapRegionDecoder只解码该区域。
+ */
+public class DecodePlanner {
+
+	/**
+	 * 解码计划
+	 */
+	public static final class Plan {
+		public final int srcWidth;
+		public final int srcHeight;
+		public final String mimeType;
+		public final int sampleSize;
+		public final Bitmap.Config config;
+
+		Plan(int srcWidth, int srcHeight, String mimeType, int sampleSize,
+				Bitmap.Config config) {
+			this.srcWidth = srcWidth;
+			this.srcHeight = srcHeight;
+			this.mimeType = mimeType;
+			this.sampleSize = sampleSize;
+			this.config = config;
+		}
+
+		public boolean isValid() {
+			return srcWidth > 0 && srcHeight > 0;
+		}
+
+		/**
+		 * 解码后的宽度(解码器向上取整)
+		 */
+		public int outWidth() {
+			return (srcWidth + sampleSize - 1) / sampleSize;
+		}
+
+		public int outHeight() {
+			return (srcHeight + sampleSize - 1) / sampleSize;
+		}
+
+		/**
+		 * 解码后占用的字节数
+		 */
+		public long outBytes() {
+			return (long) outWidth() * outHeight()
+					* (config == Bitmap.Config.RGB_565 ? 2 : 4);
+		}
+
+		BitmapFactory.Options toOptions() {
+			BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inSampleSize = sampleSize;
+			options.inPreferredConfig = config;
+			return options;
+		}
+
+		@Override
+		public String toString() {
+			return srcWidth + "x" + srcHeight + "/" + sampleSize + " -> "
+					+ outWidth() + "x" + outHeight() + " " + config;
+		}
+	}
+
+	private DecodePlanner() {
+	}
+
+	/**
+	 * 解码后宽高都不小于目标尺寸的最大2的幂采样率
+	 *
+	 * @param reqWidth
+	 *            目标宽度，0表示不限制
+	 * @param reqHeight
+	 *            目标高度，0表示不限制
+	 */
+	public static int sampleSize(int srcWidth, int srcHeight, int reqWidth,
+			int reqHeight) {
+		int sampleSize = 1;
+		if (reqWidth <= 0 && reqHeight <= 0) {
+			return sampleSize;
+		}
+		while ((reqWidth <= 0 || srcWidth / (sampleSize * 2) >= reqWidth)
+				&& (reqHeight <= 0 || srcHeight / (sampleSize * 2) >= reqHeight)) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * 读取图片尺寸并制定解码计划
+	 *
+	 * @param allowRgb565
+	 *            不透明图片(JPEG)使用RGB_565
+	 */
+	public static Plan plan(String path, int reqWidth, int reqHeight,
+			boolean allowRgb565) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		return plan(options.outWidth, options.outHeight, options.outMimeType,
+				reqWidth, reqHeight, allowRgb565);
+	}
+
+	static Plan plan(int srcWidth, int srcHeight, String mimeType,
+			int reqWidth, int reqHeight, boolean allowRgb565) {
+		int sampleSize = sampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+		Bitmap.Config config = allowRgb565 && isOpaque(mimeType) ? Bitmap.Config.RGB_565
+				: Bitmap.Config.ARGB_8888;
+		return new Plan(srcWidth, srcHeight, mimeType, sampleSize, config);
+	}
+
+	private static boolean isOpaque(String mimeType) {
+		return "image/jpeg".equals(mimeType);
+	}
+
+	/**
+	 * 按计划解码整张图片，文件无法解析时返回null
+	 */
+	public static Bitmap decode(String path, int reqWidth, int reqHeight,
+			boolean allowRgb565) {
+		Plan plan = plan(path, reqWidth, reqHeight, allowRgb565);
+		if (!plan.isValid()) {
+			return null;
+		}
+		return BitmapFactory.decodeFile(path, plan.toOptions());
+	}
+
+	/**
+	 * 只解码图片中的一个区域，采样率按区域大小计算。
+	 * 系统版本低于2.3.3时先解码整张图片再裁剪。
+	 *
+	 * @param region
+	 *            原图坐标系中的区域，超出图片的部分会被裁掉
+	 */
+	public static Bitmap decodeRegion(String path, Rect region, int reqWidth,
+			int reqHeight, boolean allowRgb565) {
+		BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, bounds);
+		Rect clipped = new Rect(Math.max(0, region.left), Math.max(0,
+				region.top), Math.min(bounds.outWidth, region.right), Math.min(
+				bounds.outHeight, region.bottom));
+		if (clipped.isEmpty()) {
+			return null;
+		}
+		Plan plan = plan(clipped.width(), clipped.height(),
+				bounds.outMimeType, reqWidth, reqHeight, allowRgb565);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+			return decodeRegion(path, clipped, plan);
+		}
+		Bitmap full = BitmapFactory.decodeFile(path, plan.toOptions());
+		if (full == null) {
+			return null;
+		}
+		int s = plan.sampleSize;
+		Bitmap cropped = Bitmap.createBitmap(full, clipped.left / s,
+				clipped.top / s, Math.min(plan.outWidth(), full.getWidth()
+						- clipped.left / s), Math.min(plan.outHeight(),
+						full.getHeight() - clipped.top / s));
+		if (cropped != full) {
+			full.recycle();
+		}
+		return cropped;
+	}
+
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+	private static Bitmap decodeRegion(String path, Rect region, Plan plan) {
+		BitmapRegionDecoder decoder = null;
+		try {
+			decoder = BitmapRegionDecoder.newInstance(path, false);
+			return decoder.decodeRegion(region, plan.toOptions());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			if (decoder != null) {
+				decoder.recycle();
+			}
+		}
+	}
+
+	/**
+	 * 与目标宽高比相同的居中区域，配合decodeRegion()实现centerCrop
+	 */
+	public static Rect centerCrop(int srcWidth, int srcHeight, int reqWidth,
+			int reqHeight) {
+		if ((long) srcWidth * reqHeight > (long) srcHeight * reqWidth) {
+			int width = (int) ((long) srcHeight * reqWidth / reqHeight);
+			int left = (srcWidth - width) / 2;
+			return new Rect(left, 0, left + width, srcHeight);
+		}
+		int height = (int) ((long) srcWidth * reqHeight / reqWidth);
+		int top = (srcHeight - height) / 2;
+		return new Rect(0, top, srcWidth, top + height);
+	}
+}
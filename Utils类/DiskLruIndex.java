@@ -0,0 +1,354 @@
+package com.lhdz.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 磁盘缓存目录的索引，ThumbnailDiskCache和HttpCache共用。
+ *
+ * 目录中的journal文件记录每个条目(PUT/META/GET/DEL)，启动时只读journal
+ * 恢复索引和LRU顺序，不遍历条目目录。条目先写到tmp子目录再rename，
+ * 进程被杀不会留下写了一半的条目文件；启动时只清空tmp子目录。
+ * 条目文件被系统清理时在下次访问时删除条目。总大小超过上限时淘汰最久未用的条目。
+ */
+class DiskLruIndex {
+
+	private static final String JOURNAL = "journal";
+	private static final String JOURNAL_TMP = "journal.tmp";
+	private static final String TMP_DIR = "tmp";
+
+	private static class Entry {
+		final String key;
+		final String fileName;
+		long length;
+		String metadata;
+
+		Entry(String key, String fileName, long length) {
+			this.key = key;
+			this.fileName = fileName;
+			this.length = length;
+		}
+	}
+
+	private final File directory;
+	private final File tmpDirectory;
+	private final long maxBytes;
+	private final String header;
+	private final String suffix;
+	// accessOrder=true，迭代顺序即LRU顺序
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	private long size;
+	private int journalLines;
+	private Writer journalWriter;
+
+	/**
+	 * @param header
+	 *            journal第一行，格式变化时修改，旧的journal会被丢弃
+	 * @param suffix
+	 *            条目文件的扩展名
+	 */
+	DiskLruIndex(File directory, long maxBytes, String header, String suffix) {
+		this.directory = directory;
+		tmpDirectory = new File(directory, TMP_DIR);
+		this.maxBytes = maxBytes;
+		this.header = header;
+		this.suffix = suffix;
+		readJournal();
+	}
+
+	/**
+	 * 返回条目文件并更新LRU顺序，没有时返回null。
+	 * 文件已经不存在(缓存目录被系统清理)时删除该条目
+	 */
+	synchronized File get(String key) {
+		Entry entry = lookup(key);
+		if (entry == null) {
+			return null;
+		}
+		File file = new File(directory, entry.fileName);
+		if (!file.exists()) {
+			remove(key);
+			return null;
+		}
+		// GET只影响LRU顺序，不必每次落盘
+		appendJournal("GET " + entry.fileName, false);
+		return file;
+	}
+
+	/**
+	 * 在索引锁内打开条目文件，打开后即使条目被淘汰也能读完。没有时返回null
+	 */
+	synchronized FileInputStream open(String key) {
+		File file = get(key);
+		if (file == null) {
+			return null;
+		}
+		try {
+			return new FileInputStream(file);
+		} catch (FileNotFoundException e) {
+			remove(key);
+			return null;
+		}
+	}
+
+	synchronized String getMetadata(String key) {
+		Entry entry = lookup(key);
+		return entry != null ? entry.metadata : null;
+	}
+
+	/**
+	 * 更新条目的附加信息，不能包含换行
+	 */
+	synchronized void setMetadata(String key, String metadata) {
+		Entry entry = lookup(key);
+		if (entry != null) {
+			entry.metadata = metadata;
+			appendJournal("META " + entry.fileName + " " + metadata, true);
+		}
+	}
+
+	private Entry lookup(String key) {
+		Entry entry = entries.get(fileName(key));
+		return entry != null && entry.key.equals(key) ? entry : null;
+	}
+
+	/**
+	 * 写入条目用的临时文件，写完后调用commit()
+	 */
+	File newTempFile(String key) {
+		if (!tmpDirectory.exists()) {
+			tmpDirectory.mkdirs();
+		}
+		return new File(tmpDirectory, fileName(key) + "."
+				+ Thread.currentThread().getId());
+	}
+
+	/**
+	 * 临时文件rename为条目文件，替换旧的条目
+	 */
+	synchronized File commit(String key, File tmp, String metadata)
+			throws IOException {
+		String fileName = fileName(key);
+		File file = new File(directory, fileName);
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("rename failed: " + file);
+		}
+		Entry old = entries.remove(fileName);
+		if (old != null) {
+			size -= old.length;
+		}
+		Entry entry = new Entry(key, fileName, file.length());
+		entry.metadata = metadata;
+		entries.put(fileName, entry);
+		size += entry.length;
+		appendJournal("PUT " + fileName + " " + entry.length + " " + key, true);
+		if (metadata != null) {
+			appendJournal("META " + fileName + " " + metadata, true);
+		}
+		trimToSize();
+		return file;
+	}
+
+	synchronized void remove(String key) {
+		Entry entry = lookup(key);
+		if (entry != null) {
+			entries.remove(entry.fileName);
+			size -= entry.length;
+			new File(directory, entry.fileName).delete();
+			appendJournal("DEL " + entry.fileName, true);
+		}
+	}
+
+	private void trimToSize() {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (size > maxBytes && it.hasNext()) {
+			Entry eldest = it.next().getValue();
+			it.remove();
+			size -= eldest.length;
+			new File(directory, eldest.fileName).delete();
+			appendJournal("DEL " + eldest.fileName, true);
+		}
+		if (journalLines > 2000 && journalLines > entries.size() * 3) {
+			rebuildJournal();
+		}
+	}
+
+	long getMaxBytes() {
+		return maxBytes;
+	}
+
+	synchronized long size() {
+		return size;
+	}
+
+	synchronized int count() {
+		return entries.size();
+	}
+
+	synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			new File(directory, entry.fileName).delete();
+		}
+		entries.clear();
+		size = 0;
+		rebuildJournal();
+	}
+
+	/**
+	 * 键的64位FNV-1a哈希作为文件名，journal中保存完整的键用于校验
+	 */
+	private String fileName(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return Long.toHexString(hash) + suffix;
+	}
+
+	private void readJournal() {
+		// 上次写到一半时进程退出留下的临时文件，没有记录在journal中。
+		// 临时文件单独放在tmp子目录，正常情况下为空，不必遍历条目目录
+		File[] stale = tmpDirectory.listFiles();
+		if (stale != null) {
+			for (File file : stale) {
+				file.delete();
+			}
+		}
+		File journal = new File(directory, JOURNAL);
+		if (!journal.exists()) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(journal), "UTF-8"));
+			if (!header.equals(reader.readLine())) {
+				reader.close();
+				reader = null;
+				journal.delete();
+				return;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				journalLines++;
+				if (line.startsWith("PUT ")) {
+					String[] parts = line.split(" ", 4);
+					if (parts.length < 4) {
+						continue;
+					}
+					Entry old = entries.remove(parts[1]);
+					if (old != null) {
+						size -= old.length;
+					}
+					Entry entry = new Entry(parts[3], parts[1],
+							Long.parseLong(parts[2]));
+					entries.put(entry.fileName, entry);
+					size += entry.length;
+				} else if (line.startsWith("META ")) {
+					int space = line.indexOf(' ', 5);
+					Entry entry = space > 0 ? entries.get(line.substring(5,
+							space)) : null;
+					if (entry != null) {
+						entry.metadata = line.substring(space + 1);
+					}
+				} else if (line.startsWith("GET ")) {
+					entries.get(line.substring(4));
+				} else if (line.startsWith("DEL ")) {
+					Entry old = entries.remove(line.substring(4));
+					if (old != null) {
+						size -= old.length;
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			// 最后一行不完整
+		} finally {
+			try {
+				if (reader != null) {
+					reader.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void appendJournal(String line, boolean flush) {
+		try {
+			if (journalWriter == null) {
+				if (!directory.exists()) {
+					directory.mkdirs();
+				}
+				File journal = new File(directory, JOURNAL);
+				boolean fresh = !journal.exists();
+				journalWriter = new OutputStreamWriter(new FileOutputStream(
+						journal, true), "UTF-8");
+				if (fresh) {
+					journalWriter.write(header + "\n");
+				}
+			}
+			journalWriter.write(line + "\n");
+			if (flush) {
+				journalWriter.flush();
+			}
+			journalLines++;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 只保留当前条目，按LRU顺序重写journal
+	 */
+	private void rebuildJournal() {
+		try {
+			if (journalWriter != null) {
+				journalWriter.close();
+				journalWriter = null;
+			}
+			if (!directory.exists()) {
+				directory.mkdirs();
+			}
+			File tmp = new File(directory, JOURNAL_TMP);
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp),
+					"UTF-8");
+			int lines = 0;
+			try {
+				writer.write(header + "\n");
+				for (Entry entry : entries.values()) {
+					writer.write("PUT " + entry.fileName + " " + entry.length
+							+ " " + entry.key + "\n");
+					lines++;
+					if (entry.metadata != null) {
+						writer.write("META " + entry.fileName + " "
+								+ entry.metadata + "\n");
+						lines++;
+					}
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmp.renameTo(new File(directory, JOURNAL))) {
+				throw new IOException("rename journal failed");
+			}
+			journalLines = lines;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
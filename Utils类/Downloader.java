@@ -0,0 +1,653 @@
+package com.lhdz.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件下载。数据经256KB直接缓冲区按位置写入FileChannel，先写到“目标文件.part”，
+ * 完成并force()后rename为目标文件，中途失败不会留下不完整的目标文件。
+ *
+ * <ul>
+ * <li>断点续传：.part和.part.meta保留时，下次用Range + If-Range继续，服务器文件变化时从头下载</li>
+ * <li>条件请求：目标文件已存在时带If-None-Match/If-Modified-Since，304时不再下载</li>
+ * <li>分段并行：文件较大且服务器支持Range时，分成几段在多个连接上同时下载，
+ * 第一段复用首个请求的连接</li>
+ * </ul>
+ */
+public class Downloader {
+
+	public static final int CONNECT_TIMEOUT = HttpConnector.DEFAULT_CONNECT_TIMEOUT;
+	public static final int READ_TIMEOUT = HttpConnector.DEFAULT_READ_TIMEOUT;
+	public static final int BUFFER_SIZE = 256 * 1024;
+	public static final int DEFAULT_SEGMENTS = 4;
+	public static final long DEFAULT_SEGMENT_THRESHOLD = 4 * 1024 * 1024;
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String META_SUFFIX = ".meta";
+
+	private static Downloader sDefault;
+
+	private static final ThreadLocal<ByteBuffer> thread_local_buffer = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+
+	/**
+	 * 进度回调，在下载线程中调用，分段下载时可能来自多个线程
+	 */
+	public interface ProgressListener {
+		/**
+		 * @param total
+		 *            文件总大小，未知时为-1
+		 * @param bytesPerSecond
+		 *            本次下载的平均速度
+		 */
+		void onProgress(long downloaded, long total, long bytesPerSecond);
+	}
+
+	/**
+	 * 下载结果
+	 */
+	public static class Result {
+		public final File file;
+		/** 服务器返回304，目标文件没有变化 */
+		public final boolean notModified;
+		/** 本次实际下载的字节数，不含续传前已有的部分 */
+		public final long bytes;
+		public final long totalBytes;
+		public final int segments;
+		public final long elapsedMs;
+
+		Result(File file, boolean notModified, long bytes, long totalBytes,
+				int segments, long elapsedMs) {
+			this.file = file;
+			this.notModified = notModified;
+			this.bytes = bytes;
+			this.totalBytes = totalBytes;
+			this.segments = segments;
+			this.elapsedMs = elapsedMs;
+		}
+
+		public long bytesPerSecond() {
+			return elapsedMs > 0 ? bytes * 1000 / elapsedMs : bytes;
+		}
+	}
+
+	/**
+	 * 文件中的一段，end为-1表示读到流结束
+	 */
+	private static class Segment {
+		final long start;
+		final long end;
+		volatile long position;
+
+		Segment(long start, long end, long position) {
+			this.start = start;
+			this.end = end;
+			this.position = position;
+		}
+
+		boolean isDone() {
+			return end >= 0 && position >= end;
+		}
+	}
+
+	/**
+	 * 一次下载的共享状态
+	 */
+	private static class Transfer {
+		final ProgressListener listener;
+		final long startNanos = System.nanoTime();
+		final AtomicLong downloaded = new AtomicLong();
+		long total = -1;
+		String etag;
+		String lastModified;
+		volatile boolean aborted;
+
+		Transfer(ProgressListener listener) {
+			this.listener = listener;
+		}
+
+		void add(long n, long existing) {
+			long done = downloaded.addAndGet(n);
+			if (listener != null) {
+				long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+						- startNanos);
+				listener.onProgress(existing + done, total,
+						elapsed > 0 ? done * 1000 / elapsed : done);
+			}
+		}
+
+		/**
+		 * If-Range使用的校验值，优先用强ETag
+		 */
+		String validator() {
+			if (etag != null && !etag.startsWith("W/")) {
+				return etag;
+			}
+			return lastModified;
+		}
+	}
+
+	private final int segments;
+	private final long segmentThreshold;
+	private final ExecutorService pool;
+
+	public Downloader() {
+		this(DEFAULT_SEGMENTS, DEFAULT_SEGMENT_THRESHOLD);
+	}
+
+	/**
+	 * @param segments
+	 *            大文件分成几段并行下载，1表示不分段
+	 * @param segmentThreshold
+	 *            文件不小于该值时才分段
+	 */
+	public Downloader(int segments, long segmentThreshold) {
+		this.segments = Math.max(1, segments);
+		this.segmentThreshold = segmentThreshold;
+		final AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Downloader-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	public static synchronized Downloader getDefault() {
+		if (sDefault == null) {
+			sDefault = new Downloader();
+		}
+		return sDefault;
+	}
+
+	/**
+	 * 下载到dest。响应码不是200/206/304时抛出HttpResponseException，
+	 * 失败时已下载的部分保留在dest.part中，下次调用时续传。
+	 */
+	public Result download(String url, File dest, ProgressListener listener)
+			throws IOException {
+		File part = new File(dest.getPath() + PART_SUFFIX);
+		File partMeta = new File(part.getPath() + META_SUFFIX);
+		Transfer transfer = new Transfer(listener);
+		Properties state = readProperties(partMeta);
+		if (part.exists() && state != null && state.getProperty("total") != null) {
+			List<Segment> saved = loadSegments(state, part.length());
+			transfer.total = Long.parseLong(state.getProperty("total"));
+			transfer.etag = state.getProperty("etag");
+			transfer.lastModified = state.getProperty("lastModified");
+			if (transfer.validator() != null && saved != null) {
+				Result result = resume(url, dest, part, partMeta, transfer,
+						saved);
+				if (result != null) {
+					return result;
+				}
+				// 服务器上的文件已经变化，从头下载
+				transfer = new Transfer(listener);
+			}
+		}
+		part.delete();
+		partMeta.delete();
+		return fresh(url, dest, part, partMeta, transfer);
+	}
+
+	private Result fresh(String url, File dest, File part, File partMeta,
+			Transfer transfer) throws IOException {
+		HttpConnector.Connection connection = open(url, null, null);
+		HttpURLConnection conn = connection.get();
+		boolean ok = false;
+		try {
+			Properties known = dest.exists() ? readProperties(new File(
+					dest.getPath() + META_SUFFIX)) : null;
+			if (known != null) {
+				if (known.getProperty("etag") != null) {
+					conn.setRequestProperty("If-None-Match",
+							known.getProperty("etag"));
+				}
+				if (known.getProperty("lastModified") != null) {
+					conn.setRequestProperty("If-Modified-Since",
+							known.getProperty("lastModified"));
+				}
+			}
+			int code = conn.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && known != null) {
+				MultipartUploader.discard(conn.getErrorStream());
+				connection.close(true);
+				ok = true;
+				return new Result(dest, true, 0, dest.length(), 0,
+						elapsedMs(transfer));
+			}
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new HttpResponseException(code);
+			}
+			transfer.total = contentLength(conn);
+			transfer.etag = conn.getHeaderField("ETag");
+			transfer.lastModified = conn.getHeaderField("Last-Modified");
+
+			List<Segment> plan = new ArrayList<Segment>();
+			int count = segments;
+			int perHost = HttpConnector.getDefault().getMaxConnectionsPerHost();
+			if (perHost > 0) {
+				// 分段数超过每主机连接数时，多出的段只能等待名额
+				count = Math.min(count, perHost);
+			}
+			if (count > 1 && transfer.total >= segmentThreshold
+					&& "bytes".equalsIgnoreCase(conn
+							.getHeaderField("Accept-Ranges"))
+					&& transfer.validator() != null) {
+				long size = (transfer.total + count - 1) / count;
+				for (long start = 0; start < transfer.total; start += size) {
+					plan.add(new Segment(start, Math.min(transfer.total, start
+							+ size), start));
+				}
+			} else {
+				plan.add(new Segment(0, transfer.total, 0));
+			}
+			ok = true;
+			return run(url, dest, part, partMeta, transfer, plan, connection);
+		} finally {
+			if (!ok) {
+				connection.close(false);
+			}
+		}
+	}
+
+	/**
+	 * 续传，服务器文件已变化时返回null。
+	 * 先用第一个未完成的段带If-Range请求，确认文件没有变化后，
+	 * 这个连接直接用于该段，其余的段再并行请求。
+	 */
+	private Result resume(String url, File dest, File part, File partMeta,
+			Transfer transfer, List<Segment> saved) throws IOException {
+		Segment segment = null;
+		for (Segment s : saved) {
+			if (!s.isDone()) {
+				segment = s;
+				break;
+			}
+		}
+		if (segment == null) {
+			return run(url, dest, part, partMeta, transfer, saved, null);
+		}
+		HttpConnector.Connection connection = open(url, "bytes="
+				+ segment.position + "-"
+				+ (segment.end >= 0 ? String.valueOf(segment.end - 1) : ""),
+				transfer.validator());
+		HttpURLConnection conn = connection.get();
+		boolean ok = false;
+		try {
+			int code = conn.getResponseCode();
+			if (code == HttpURLConnection.HTTP_OK
+					|| code == 416 /* Range Not Satisfiable */) {
+				return null;
+			}
+			if (code != HttpURLConnection.HTTP_PARTIAL
+					|| rangeStart(conn) != segment.position) {
+				throw new HttpResponseException(code);
+			}
+			ok = true;
+			return run(url, dest, part, partMeta, transfer, saved, connection);
+		} finally {
+			if (!ok) {
+				connection.close(false);
+			}
+		}
+	}
+
+	/**
+	 * 下载plan中未完成的段。first不为null时是第一段已经打开的连接。
+	 */
+	private Result run(String url, File dest, File part, File partMeta,
+			Transfer transfer, List<Segment> plan,
+			HttpConnector.Connection first) throws IOException {
+		boolean done = false;
+		try {
+			Result result = runSegments(url, dest, part, partMeta, transfer,
+					plan, first);
+			done = true;
+			return result;
+		} finally {
+			// 分段时首个连接只读了第一段，剩余内容不能复用，直接断开
+			if (first != null) {
+				first.close(done && plan.size() == 1);
+			}
+		}
+	}
+
+	private Result runSegments(String url, File dest, File part,
+			File partMeta, Transfer transfer, List<Segment> plan,
+			HttpConnector.Connection first) throws IOException {
+		File dir = dest.getAbsoluteFile().getParentFile();
+		if (dir != null && !dir.exists()) {
+			dir.mkdirs();
+		}
+		long existing = 0;
+		for (Segment segment : plan) {
+			existing += segment.position - segment.start;
+		}
+		RandomAccessFile file = new RandomAccessFile(part, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			if (plan.size() > 1 && file.length() < transfer.total) {
+				file.setLength(transfer.total);
+			}
+			// 先把分段信息写下来，进程被杀后也能续传已确认的部分
+			writeState(partMeta, transfer, plan);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			Segment inline = null;
+			for (Segment segment : plan) {
+				if (segment.isDone()) {
+					continue;
+				}
+				if (first != null && inline == null) {
+					inline = segment;
+				} else {
+					futures.add(pool.submit(fetch(url, channel, segment,
+							transfer, existing)));
+				}
+			}
+			IOException failure = null;
+			try {
+				if (inline != null) {
+					copy(first.get(), channel, inline, transfer, existing);
+					// 尽早归还每主机连接数的名额，不等其他段
+					first.close(plan.size() == 1);
+				}
+			} catch (IOException e) {
+				failure = e;
+				transfer.aborted = true;
+			}
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					transfer.aborted = true;
+					if (failure == null) {
+						failure = e.getCause() instanceof IOException ? (IOException) e
+								.getCause() : new IOException(e.getCause());
+					}
+				} catch (InterruptedException e) {
+					transfer.aborted = true;
+					Thread.currentThread().interrupt();
+					if (failure == null) {
+						failure = new InterruptedIOException("download interrupted");
+					}
+				}
+			}
+			if (failure != null) {
+				channel.force(false);
+				writeState(partMeta, transfer, plan);
+				throw failure;
+			}
+			channel.force(false);
+		} finally {
+			file.close();
+		}
+		if (!part.renameTo(dest)) {
+			dest.delete();
+			if (!part.renameTo(dest)) {
+				throw new IOException("cannot rename " + part + " to " + dest);
+			}
+		}
+		partMeta.delete();
+		Properties meta = new Properties();
+		putIfNotNull(meta, "etag", transfer.etag);
+		putIfNotNull(meta, "lastModified", transfer.lastModified);
+		writeProperties(new File(dest.getPath() + META_SUFFIX), meta);
+		return new Result(dest, false, transfer.downloaded.get(),
+				dest.length(), plan.size(), elapsedMs(transfer));
+	}
+
+	private Callable<Void> fetch(final String url, final FileChannel channel,
+			final Segment segment, final Transfer transfer, final long existing) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				HttpConnector.Connection connection = open(url, "bytes="
+						+ segment.position + "-" + (segment.end - 1),
+						transfer.validator());
+				HttpURLConnection conn = connection.get();
+				boolean reusable = false;
+				try {
+					int code = conn.getResponseCode();
+					if (code != HttpURLConnection.HTTP_PARTIAL
+							|| rangeStart(conn) != segment.position) {
+						// 200说明If-Range不匹配，文件已经变化
+						throw new HttpResponseException(code);
+					}
+					copy(conn, channel, segment, transfer, existing);
+					reusable = true;
+				} finally {
+					connection.close(reusable);
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * 把响应写入segment.position开始的位置。缓冲区读满后才写文件，
+	 * 每次写入接近256KB。
+	 */
+	private static void copy(HttpURLConnection conn, FileChannel channel,
+			Segment segment, Transfer transfer, long existing)
+			throws IOException {
+		InputStream in = conn.getInputStream();
+		try {
+			ReadableByteChannel source = Channels.newChannel(in);
+			ByteBuffer buffer = thread_local_buffer.get();
+			boolean eof = false;
+			while (!eof && !segment.isDone()) {
+				if (transfer.aborted) {
+					throw new InterruptedIOException("download aborted");
+				}
+				buffer.clear();
+				if (segment.end >= 0) {
+					buffer.limit((int) Math.min(buffer.capacity(), segment.end
+							- segment.position));
+				}
+				while (buffer.hasRemaining()) {
+					if (source.read(buffer) < 0) {
+						eof = true;
+						break;
+					}
+				}
+				buffer.flip();
+				int n = buffer.remaining();
+				long position = segment.position;
+				while (buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				segment.position = position;
+				if (n > 0) {
+					transfer.add(n, existing);
+				}
+			}
+			if (segment.end >= 0 && !segment.isDone()) {
+				throw new EOFException("connection closed at "
+						+ segment.position + " of " + segment.end);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static HttpConnector.Connection open(String url, String range,
+			String ifRange) throws IOException {
+		HttpConnector.Connection connection = HttpConnector.getDefault().open(
+				url, "GET");
+		HttpURLConnection conn = connection.get();
+		conn.setUseCaches(false);
+		// 分段和续传按原始字节计算，不能让服务器压缩
+		conn.setRequestProperty("Accept-Encoding", "identity");
+		if (range != null) {
+			conn.setRequestProperty("Range", range);
+		}
+		if (ifRange != null) {
+			conn.setRequestProperty("If-Range", ifRange);
+		}
+		return connection;
+	}
+
+	private static long contentLength(HttpURLConnection conn) {
+		String value = conn.getHeaderField("Content-Length");
+		try {
+			return value != null ? Long.parseLong(value.trim()) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Content-Range: bytes start-end/total中的start
+	 */
+	private static long rangeStart(HttpURLConnection conn) {
+		String value = conn.getHeaderField("Content-Range");
+		if (value == null) {
+			return -1;
+		}
+		int space = value.indexOf(' ');
+		int dash = value.indexOf('-', space + 1);
+		try {
+			return Long.parseLong(value.substring(space + 1, dash).trim());
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * 单段下载没有预分配文件，已完成的长度就是.part的长度；
+	 * 多段下载的进度只在写状态时保存
+	 */
+	private static List<Segment> loadSegments(Properties state, long partLength) {
+		try {
+			long total = Long.parseLong(state.getProperty("total"));
+			int count = Integer.parseInt(state.getProperty("segments", "1"));
+			List<Segment> list = new ArrayList<Segment>();
+			if (count <= 1) {
+				list.add(new Segment(0, total, Math.min(partLength, total)));
+				return list;
+			}
+			for (int i = 0; i < count; i++) {
+				String[] values = state.getProperty("segment." + i).split(",");
+				list.add(new Segment(Long.parseLong(values[0]), Long
+						.parseLong(values[1]), Long.parseLong(values[2])));
+			}
+			return list;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static void writeState(File partMeta, Transfer transfer,
+			List<Segment> plan) throws IOException {
+		if (transfer.total < 0) {
+			// 长度未知无法续传
+			return;
+		}
+		Properties state = new Properties();
+		state.setProperty("total", String.valueOf(transfer.total));
+		putIfNotNull(state, "etag", transfer.etag);
+		putIfNotNull(state, "lastModified", transfer.lastModified);
+		state.setProperty("segments", String.valueOf(plan.size()));
+		if (plan.size() > 1) {
+			for (int i = 0; i < plan.size(); i++) {
+				Segment segment = plan.get(i);
+				state.setProperty("segment." + i, segment.start + ","
+						+ segment.end + "," + segment.position);
+			}
+		}
+		writeProperties(partMeta, state);
+	}
+
+	private static void putIfNotNull(Properties properties, String key,
+			String value) {
+		if (value != null) {
+			properties.setProperty(key, value);
+		}
+	}
+
+	private static Properties readProperties(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			Properties properties = new Properties();
+			properties.load(in);
+			return properties;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 先写临时文件再rename
+	 */
+	private static void writeProperties(File file, Properties properties)
+			throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("cannot rename " + tmp + " to " + file);
+			}
+		}
+	}
+
+	private static long elapsedMs(Transfer transfer) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- transfer.startNanos);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,413 @@
+package com.finddreams.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import android.util.Log;
+
+/**
+ * 内存中的"黑匣子"：固定大小的环形缓冲区，保存最近的各级别日志，不做任何IO。
+ * 只在wtf()或未捕获异常时把内容写到文件，平时每条日志只是一次原子自增和一次数组写入。
+ * LogUtils在级别开关、过滤规则和限流之前记录，没有打印出来的日志也在缓冲区里；
+ * 模板和supplier原样保存，dump时才格式化。
+ * wtf()用dumpAsync()在后台线程写文件，调用线程不做IO；崩溃时进程随即退出，同步写完。
+ *
+ * 缓冲区分成若干段，线程按id落到不同的段，各段有自己的写指针，
+ * 多个线程同时写时基本不争用同一个原子变量。写满后覆盖最旧的记录。
+ * 导出时合并各段，按时间排序。
+ */
+public class FlightRecorder {
+
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private static final long MIN_DUMP_INTERVAL_MS = 1000;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    /** 自动tag的日志没有通过级别检查时不解析调用栈，dump时用这个tag */
+    static final String UNRESOLVED_TAG = "LogUtils";
+
+    /**
+     * 一条日志记录，除了自动tag外写入后不再修改
+     */
+    public static final class Record {
+        /** System.nanoTime()，只用于排序和换算时间 */
+        public final long nanos;
+        /** android.util.Log的级别 */
+        public final int level;
+        public final String thread;
+        public final Throwable tr;
+        // 自动tag的日志通过级别检查后由LogUtils补上，之前为null
+        volatile String tag;
+        // 日志内容、模板或LogUtils.MessageSupplier
+        private final Object msg;
+        // 模板参数个数，不是模板时为-1
+        private final int count;
+        private final Object arg1;
+        private final Object arg2;
+        private final Object arg3;
+        private final Object arg4;
+
+        Record(long nanos, int level, String thread, String tag, Object msg,
+                int count, Object arg1, Object arg2, Object arg3,
+                Object arg4, Throwable tr) {
+            this.nanos = nanos;
+            this.level = level;
+            this.thread = thread;
+            this.tag = tag;
+            this.msg = msg;
+            this.count = count;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+            this.arg4 = arg4;
+            this.tr = tr;
+        }
+
+        public String getTag() {
+            String tag = this.tag;
+            return tag != null ? tag : UNRESOLVED_TAG;
+        }
+
+        /**
+         * 日志内容，模板和supplier在这里才格式化
+         */
+        public String getMessage() {
+            try {
+                if (count >= 0) {
+                    return LogUtils.render((String) msg, count, arg1, arg2,
+                            arg3, arg4);
+                }
+                if (msg instanceof LogUtils.MessageSupplier) {
+                    return ((LogUtils.MessageSupplier) msg).get();
+                }
+                return (String) msg;
+            } catch (RuntimeException e) {
+                // 参数的toString()或supplier出错，不能让一条日志影响整个dump
+                return "<" + e + ">";
+            }
+        }
+
+        @Override
+        public String toString() {
+            return levelChar(level) + "/" + getTag() + " [" + thread + "] "
+                    + getMessage() + (tr != null ? " " + tr : "");
+        }
+    }
+
+    /**
+     * 一段环形缓冲区。记录是不可变对象，整条替换，读取时不会读到写了一半的记录
+     */
+    private static final class Stripe {
+        final AtomicReferenceArray<Record> records;
+        final int mask;
+        final AtomicLong tail = new AtomicLong();
+
+        Stripe(int size) {
+            records = new AtomicReferenceArray<Record>(size);
+            mask = size - 1;
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacity;
+    private volatile File dumpDir;
+    private volatile long lastDumpTime;
+
+    public FlightRecorder(File dumpDir) {
+        this(DEFAULT_CAPACITY, dumpDir);
+    }
+
+    /**
+     * @param capacity
+     *            总共保留的记录数，向上取整为2的幂
+     * @param dumpDir
+     *            dump()写入的目录
+     */
+    public FlightRecorder(int capacity, File dumpDir) {
+        int count = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (count < cpus && count < 8) {
+            count <<= 1;
+        }
+        int size = 1;
+        while (size * count < capacity) {
+            size <<= 1;
+        }
+        // 每段至少64条，否则一个线程刷屏时留下的上下文太少
+        while (size < 64 && count > 1) {
+            count >>= 1;
+            size <<= 1;
+        }
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(size);
+        }
+        stripeMask = count - 1;
+        this.capacity = size * count;
+        this.dumpDir = dumpDir;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void setDumpDir(File dumpDir) {
+        this.dumpDir = dumpDir;
+    }
+
+    /**
+     * 记录一条日志，不加锁、不阻塞，只分配一个Record
+     */
+    public Record record(int level, String tag, String msg, Throwable tr) {
+        return add(level, tag, msg, -1, null, null, null, null, tr);
+    }
+
+    /**
+     * 记录一条延迟生成的日志，dump时才调用supplier.get()
+     */
+    Record record(int level, String tag, LogUtils.MessageSupplier supplier) {
+        return add(level, tag, supplier, -1, null, null, null, null, null);
+    }
+
+    /**
+     * 记录一条"{}"模板日志，只保存模板和参数。最后一个参数是Throwable并且
+     * 没有对应的"{}"时作为异常保存，与LogUtils打印时一致。
+     */
+    Record record(int level, String tag, String format, int count,
+            Object arg1, Object arg2, Object arg3, Object arg4) {
+        int formatCount = LogUtils.formatCount(format, count, arg1, arg2,
+                arg3, arg4);
+        Throwable tr = formatCount < count ? (Throwable) (count == 1 ? arg1
+                : count == 2 ? arg2 : count == 3 ? arg3 : arg4) : null;
+        return add(level, tag, format, formatCount, arg1, arg2, arg3, arg4,
+                tr);
+    }
+
+    private Record add(int level, String tag, Object msg, int count,
+            Object arg1, Object arg2, Object arg3, Object arg4, Throwable tr) {
+        Thread current = Thread.currentThread();
+        Stripe stripe = stripes[(int) current.getId() & stripeMask];
+        long seq = stripe.tail.getAndIncrement();
+        Record record = new Record(System.nanoTime(), level,
+                current.getName(), tag, msg, count, arg1, arg2, arg3, arg4, tr);
+        // lazySet不需要等待写缓冲排空，读取方最迟在下一次内存屏障后看到
+        stripe.records.lazySet((int) seq & stripe.mask, record);
+        return record;
+    }
+
+    /**
+     * 当前缓冲区中的记录，按时间从旧到新
+     */
+    public List<Record> snapshot() {
+        List<Record> records = new ArrayList<Record>(capacity);
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < stripe.records.length(); i++) {
+                Record record = stripe.records.get(i);
+                if (record != null) {
+                    records.add(record);
+                }
+            }
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record a, Record b) {
+                long d = a.nanos - b.nanos;
+                return d < 0 ? -1 : (d == 0 ? 0 : 1);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * 以文本写出全部记录，格式: MM-dd HH:mm:ss.SSS L/tag [thread] msg
+     */
+    public void dump(Writer out) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS",
+                Locale.SIMPLIFIED_CHINESE);
+        // nanoTime换算为墙上时间
+        long offsetMs = System.currentTimeMillis() - System.nanoTime() / 1000000;
+        PrintWriter writer = new PrintWriter(out);
+        for (Record record : snapshot()) {
+            writer.print(format.format(new Date(offsetMs + record.nanos
+                    / 1000000)));
+            writer.print(' ');
+            writer.print(levelChar(record.level));
+            writer.print('/');
+            writer.print(record.getTag());
+            writer.print(" [");
+            writer.print(record.thread);
+            writer.print("] ");
+            writer.println(record.getMessage());
+            if (record.tr != null) {
+                record.tr.printStackTrace(writer);
+            }
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("dump failed");
+        }
+    }
+
+    /**
+     * 写到dumpDir/flight-yyyyMMdd-HHmmss-SSS.log。一秒内多次调用只写第一次，
+     * 避免wtf()在循环中反复写文件。
+     *
+     * @return 写入的文件，被跳过或失败时返回null
+     */
+    public File dump(String reason) {
+        long now = System.currentTimeMillis();
+        if (!acquireDump(now)) {
+            return null;
+        }
+        return write(reason, now);
+    }
+
+    /**
+     * 同dump(String)，调用线程只判断dump间隔，文件在后台线程写。
+     * 开始写之前新打的日志也会写进文件，缓冲区足够大时触发dump的记录不会被覆盖。
+     *
+     * @return 被dump间隔跳过时返回false
+     */
+    public boolean dumpAsync(final String reason) {
+        final long now = System.currentTimeMillis();
+        if (!acquireDump(now)) {
+            return false;
+        }
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                write(reason, now);
+            }
+        });
+        return true;
+    }
+
+    private synchronized boolean acquireDump(long now) {
+        if (now - lastDumpTime < MIN_DUMP_INTERVAL_MS) {
+            return false;
+        }
+        lastDumpTime = now;
+        return true;
+    }
+
+    private File write(String reason, long now) {
+        File dir = dumpDir;
+        if (dir == null) {
+            return null;
+        }
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File file = new File(dir, "flight-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US)
+                        .format(new Date(now)) + ".log");
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            out.write("# " + reason + "\n");
+            dump(out);
+            return file;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 清空缓冲区，只用于测试
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < stripe.records.length(); i++) {
+                stripe.records.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * 安装未捕获异常处理器：先记录异常并dump，再交给原来的处理器
+     */
+    public void installCrashHandler() {
+        final Thread.UncaughtExceptionHandler previous = Thread
+                .getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex) {
+                try {
+                    record(Log.ASSERT, "UncaughtException", thread.getName(),
+                            ex);
+                    synchronized (FlightRecorder.this) {
+                        // 崩溃时不受dump间隔限制
+                        lastDumpTime = 0;
+                    }
+                    dump("uncaught exception in " + thread.getName());
+                } catch (Throwable e) {
+                    // 不能影响原来的处理器
+                }
+                if (previous != null) {
+                    previous.uncaughtException(thread, ex);
+                }
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "FlightRecorder");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    static char levelChar(int level) {
+        switch (level) {
+        case Log.VERBOSE:
+            return 'V';
+        case Log.DEBUG:
+            return 'D';
+        case Log.INFO:
+            return 'I';
+        case Log.WARN:
+            return 'W';
+        case Log.ERROR:
+            return 'E';
+        default:
+            return 'A';
+        }
+    }
+}
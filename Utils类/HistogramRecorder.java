@@ -0,0 +1,106 @@
+package com.lhdz.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把统计回调记录到直方图中，随时可以dump()出当前的分布。
+ * 耗时单位为微秒，压缩率为千分比(压缩后/原始像素字节)。
+ *
+ * <pre>
+ * HistogramRecorder recorder = new HistogramRecorder();
+ * Metrics.addListener(recorder);
+ * ...
+ * LogUtils.i(recorder.dump());
+ * </pre>
+ */
+public class HistogramRecorder implements MetricsListener {
+
+	public final Histogram connectMicros = new Histogram();
+	public final Histogram writeMicros = new Histogram();
+	public final Histogram firstByteMicros = new Histogram();
+	public final Histogram readMicros = new Histogram();
+	public final Histogram totalMicros = new Histogram();
+	public final Histogram bytesSent = new Histogram();
+	public final Histogram bytesReceived = new Histogram();
+	public final Histogram compressMicros = new Histogram();
+	public final Histogram compressRatioPermille = new Histogram();
+	public final Histogram compressEncodes = new Histogram();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+
+	@Override
+	public void onRequest(TransferMetrics metrics) {
+		connectMicros.record(metrics.connectNanos / 1000);
+		writeMicros.record(metrics.writeNanos / 1000);
+		firstByteMicros.record(metrics.firstByteNanos / 1000);
+		readMicros.record(metrics.readNanos / 1000);
+		totalMicros.record(metrics.totalNanos() / 1000);
+		bytesSent.record(metrics.bytesSent);
+		bytesReceived.record(metrics.bytesReceived);
+		if (!metrics.isSuccess()) {
+			failures.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void onRetry(String url, int attempt, Throwable cause) {
+		retries.incrementAndGet();
+	}
+
+	@Override
+	public void onCompression(long nanos, long inputBytes, long outputBytes,
+			int encodes) {
+		compressMicros.record(nanos / 1000);
+		if (inputBytes > 0) {
+			compressRatioPermille.record(outputBytes * 1000 / inputBytes);
+		}
+		compressEncodes.record(encodes);
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public void reset() {
+		connectMicros.reset();
+		writeMicros.reset();
+		firstByteMicros.reset();
+		readMicros.reset();
+		totalMicros.reset();
+		bytesSent.reset();
+		bytesReceived.reset();
+		compressMicros.reset();
+		compressRatioPermille.reset();
+		compressEncodes.reset();
+		failures.set(0);
+		retries.set(0);
+	}
+
+	/**
+	 * 当前各项分布，每项一行
+	 */
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("requests failures=").append(failures.get())
+				.append(" retries=").append(retries.get()).append('\n');
+		line(sb, "connect(us)", connectMicros);
+		line(sb, "write(us)", writeMicros);
+		line(sb, "ttfb(us)", firstByteMicros);
+		line(sb, "read(us)", readMicros);
+		line(sb, "total(us)", totalMicros);
+		line(sb, "sent(B)", bytesSent);
+		line(sb, "received(B)", bytesReceived);
+		line(sb, "compress(us)", compressMicros);
+		line(sb, "ratio(permille)", compressRatioPermille);
+		line(sb, "encodes", compressEncodes);
+		return sb.toString();
+	}
+
+	private static void line(StringBuilder sb, String name, Histogram histogram) {
+		sb.append(name).append(' ').append(histogram.summary()).append('\n');
+	}
+}
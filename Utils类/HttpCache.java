@@ -0,0 +1,349 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import android.content.Context;
+
+/**
+ * GET请求的本地HTTP缓存，适合图片等不常变化的资源。
+ *
+ * 响应体连同ETag、Last-Modified和过期时间(Cache-Control: max-age或Expires)保存在
+ * 有大小上限的磁盘目录中(DiskLruIndex)。未过期的条目直接从本地返回，不发请求；
+ * 过期的条目带If-None-Match/If-Modified-Since重新验证，304时只更新过期时间。
+ * 响应为no-store，或者既没有校验值也没有过期时间时不缓存。
+ */
+public class HttpCache {
+
+	public static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+
+	private static final ThreadLocal<SimpleDateFormat> thread_local_http_date = new ThreadLocal<SimpleDateFormat>() {
+		protected SimpleDateFormat initialValue() {
+			SimpleDateFormat format = new SimpleDateFormat(
+					"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return format;
+		}
+	};
+
+	/**
+	 * 缓存条目的校验值和过期时间，以一行文本保存在索引中
+	 */
+	private static class Validators {
+		String etag;
+		String lastModified;
+		long expiresAt;
+		boolean noStore;
+
+		String encode() {
+			return expiresAt + "\t" + clean(etag) + "\t" + clean(lastModified);
+		}
+
+		static Validators decode(String metadata) {
+			if (metadata == null) {
+				return null;
+			}
+			String[] parts = metadata.split("\t", -1);
+			if (parts.length != 3) {
+				return null;
+			}
+			Validators validators = new Validators();
+			try {
+				validators.expiresAt = Long.parseLong(parts[0]);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			validators.etag = parts[1].length() > 0 ? parts[1] : null;
+			validators.lastModified = parts[2].length() > 0 ? parts[2] : null;
+			return validators;
+		}
+
+		private static String clean(String value) {
+			return value == null ? "" : value.replace('\t', ' ')
+					.replace('\n', ' ').replace('\r', ' ');
+		}
+
+		boolean isCacheable() {
+			return !noStore
+					&& (etag != null || lastModified != null || expiresAt > System
+							.currentTimeMillis());
+		}
+	}
+
+	private final DiskLruIndex index;
+	private int requestCount;
+	private int hitCount;
+	private int conditionalHitCount;
+	private int networkCount;
+
+	public HttpCache(File directory, long maxBytes) {
+		index = new DiskLruIndex(directory, maxBytes, "HttpCache 1", ".body");
+	}
+
+	/**
+	 * 使用应用缓存目录下的http目录
+	 */
+	public static HttpCache open(Context context) {
+		return new HttpCache(new File(context.getCacheDir(), "http"),
+				DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * GET url，返回响应体。响应码不是200/304时抛出HttpResponseException。
+	 */
+	public InputStream get(String url) throws IOException {
+		synchronized (this) {
+			requestCount++;
+		}
+		Validators validators = Validators.decode(index.getMetadata(url));
+		if (validators != null
+				&& validators.expiresAt > System.currentTimeMillis()) {
+			// 在索引锁内打开，不会被其他线程在查询和打开之间淘汰
+			InputStream cached = index.open(url);
+			if (cached != null) {
+				synchronized (this) {
+					hitCount++;
+				}
+				return cached;
+			}
+			validators = null;
+		}
+		InputStream in = fetch(url, validators);
+		if (in == null) {
+			// 304时本地文件已经被淘汰，不带校验值重新下载
+			in = fetch(url, null);
+		}
+		return in;
+	}
+
+	/**
+	 * 请求网络，validators不为null时带条件请求。304但本地文件已经不存在时返回null
+	 */
+	private InputStream fetch(String url, Validators validators)
+			throws IOException {
+		HttpConnector.Connection connection = HttpConnector.getDefault().open(
+				url, "GET");
+		HttpURLConnection conn = connection.get();
+		boolean reusable = false;
+		try {
+			// 由本类负责缓存，不使用系统的HttpResponseCache
+			conn.setUseCaches(false);
+			if (validators != null) {
+				if (validators.etag != null) {
+					conn.setRequestProperty("If-None-Match", validators.etag);
+				}
+				if (validators.lastModified != null) {
+					conn.setRequestProperty("If-Modified-Since",
+							validators.lastModified);
+				}
+			}
+			int code = conn.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED
+					&& validators != null) {
+				MultipartUploader.discard(conn.getErrorStream());
+				reusable = true;
+				InputStream cached = index.open(url);
+				if (cached == null) {
+					return null;
+				}
+				Validators updated = parse(conn);
+				if (updated.etag == null) {
+					updated.etag = validators.etag;
+				}
+				if (updated.lastModified == null) {
+					updated.lastModified = validators.lastModified;
+				}
+				index.setMetadata(url, updated.encode());
+				synchronized (this) {
+					conditionalHitCount++;
+				}
+				return cached;
+			}
+			if (code != HttpURLConnection.HTTP_OK) {
+				MultipartUploader.discard(conn.getErrorStream());
+				reusable = true;
+				throw new HttpResponseException(code);
+			}
+			synchronized (this) {
+				networkCount++;
+			}
+			Validators fresh = parse(conn);
+			File tmp = index.newTempFile(url);
+			InputStream in = conn.getInputStream();
+			try {
+				copy(in, tmp);
+			} catch (IOException e) {
+				tmp.delete();
+				throw e;
+			} finally {
+				in.close();
+			}
+			reusable = true;
+			// 超过缓存上限的响应提交后会被立即淘汰，不缓存
+			if (!fresh.isCacheable() || tmp.length() > index.getMaxBytes()) {
+				index.remove(url);
+				return new DeleteOnCloseInputStream(tmp);
+			}
+			// 提交前打开，rename和之后的淘汰都不影响已经打开的文件
+			InputStream body = new FileInputStream(tmp);
+			try {
+				index.commit(url, tmp, fresh.encode());
+			} catch (IOException e) {
+				body.close();
+				throw e;
+			}
+			return body;
+		} finally {
+			connection.close(reusable);
+		}
+	}
+
+	/**
+	 * 从响应头解析校验值和过期时间
+	 */
+	private static Validators parse(HttpURLConnection conn) {
+		Validators validators = new Validators();
+		validators.etag = conn.getHeaderField("ETag");
+		validators.lastModified = conn.getHeaderField("Last-Modified");
+		long now = System.currentTimeMillis();
+		String cacheControl = conn.getHeaderField("Cache-Control");
+		long maxAge = -1;
+		if (cacheControl != null) {
+			for (String directive : cacheControl.split(",")) {
+				directive = directive.trim().toLowerCase(Locale.US);
+				if (directive.equals("no-store")) {
+					validators.noStore = true;
+				} else if (directive.equals("no-cache")) {
+					maxAge = 0;
+				} else if (directive.startsWith("max-age=") && maxAge != 0) {
+					try {
+						maxAge = Long.parseLong(directive.substring(8).trim());
+					} catch (NumberFormatException e) {
+						maxAge = 0;
+					}
+				}
+			}
+		}
+		if (maxAge >= 0) {
+			long age = 0;
+			String ageHeader = conn.getHeaderField("Age");
+			if (ageHeader != null) {
+				try {
+					age = Long.parseLong(ageHeader.trim());
+				} catch (NumberFormatException e) {
+					// 忽略
+				}
+			}
+			validators.expiresAt = now + Math.max(0, maxAge - age) * 1000;
+		} else {
+			String expires = conn.getHeaderField("Expires");
+			if (expires != null) {
+				try {
+					validators.expiresAt = thread_local_http_date.get()
+							.parse(expires).getTime();
+				} catch (ParseException e) {
+					// 无效的Expires视为已过期
+				}
+			}
+		}
+		return validators;
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 不缓存的响应先落到临时文件，读完关闭时删除
+	 */
+	private static class DeleteOnCloseInputStream extends FileInputStream {
+		private final File file;
+
+		DeleteOnCloseInputStream(File file) throws IOException {
+			super(file);
+			this.file = file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	public void remove(String url) {
+		index.remove(url);
+	}
+
+	public void clear() {
+		index.clear();
+	}
+
+	/**
+	 * 当前占用字节数
+	 */
+	public long size() {
+		return index.size();
+	}
+
+	public synchronized int requestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * 未过期、没有发请求的次数
+	 */
+	public synchronized int hitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * 重新验证后服务器返回304的次数
+	 */
+	public synchronized int conditionalHitCount() {
+		return conditionalHitCount;
+	}
+
+	/**
+	 * 从网络下载响应体的次数
+	 */
+	public synchronized int networkCount() {
+		return networkCount;
+	}
+
+	/**
+	 * 不需要下载响应体的请求所占比例
+	 */
+	public synchronized float hitRatio() {
+		return requestCount == 0 ? 0 : (hitCount + conditionalHitCount)
+				/ (float) requestCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HttpCache[size=" + size() + " requests=" + requestCount
+				+ " hits=" + hitCount + " conditionalHits="
+				+ conditionalHitCount + " network=" + networkCount + "]";
+	}
+}
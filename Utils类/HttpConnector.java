@@ -0,0 +1,276 @@
+package com.lhdz.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 上传、下载共用的HTTP连接工厂，统一超时、请求头和keep-alive设置，
+ * 可以限制每个主机同时使用的连接数。
+ *
+ * 空闲连接的复用由HttpURLConnection自身的连接池完成，每个地址保留的空闲连接数
+ * 由系统属性http.maxConnections决定(默认5)。只有调用了Builder.poolSize()才会
+ * 设置该属性，它对整个进程生效，并且必须在第一次请求之前build()。
+ *
+ * 每主机连接数默认不限制，同时的连接数由调用方的并行度决定，如Downloader的分段数、
+ * BatchUploader的parallelism；设置了maxConnectionsPerHost()时，open()占用一个名额，
+ * Connection.close()或getInputStream()返回的流关闭时归还，只归还一次。
+ * 用完连接调用Connection.close(reusable)：响应已读完时传true，连接回到池中；
+ * 出错时传false断开。
+ *
+ * 只使用HttpURLConnection，不支持HTTP/2：Android上的HttpURLConnection只走HTTP/1.1，
+ * JDK 11的HttpClient在Android上不存在，本工程也按Java 7编译。
+ * 多个小请求靠keep-alive复用连接，而不是在一个连接上多路复用。
+ */
+public class HttpConnector {
+
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+	/** HttpURLConnection每个地址默认保留的空闲连接数 */
+	public static final int DEFAULT_POOL_SIZE = 5;
+
+	private static final String POOL_SIZE_PROPERTY = "http.maxConnections";
+
+	private static volatile HttpConnector sDefault;
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final int maxConnectionsPerHost;
+	private final String userAgent;
+	private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<String, Semaphore>();
+
+	public static class Builder {
+		private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+		private int readTimeout = DEFAULT_READ_TIMEOUT;
+		private int maxConnectionsPerHost;
+		private int poolSize;
+		private String userAgent;
+
+		public Builder connectTimeout(int millis) {
+			connectTimeout = millis;
+			return this;
+		}
+
+		public Builder readTimeout(int millis) {
+			readTimeout = millis;
+			return this;
+		}
+
+		/**
+		 * 同一主机同时打开的连接数上限，超过时open()最多等待readTimeout，0表示不限制
+		 */
+		public Builder maxConnectionsPerHost(int count) {
+			maxConnectionsPerHost = count;
+			return this;
+		}
+
+		/**
+		 * 每个地址保留的空闲keep-alive连接数，设置系统属性http.maxConnections，
+		 * 对整个进程生效，第一次请求之后再设置不起作用
+		 */
+		public Builder poolSize(int count) {
+			poolSize = count;
+			return this;
+		}
+
+		public Builder userAgent(String userAgent) {
+			this.userAgent = userAgent;
+			return this;
+		}
+
+		public HttpConnector build() {
+			if (poolSize > 0) {
+				System.setProperty(POOL_SIZE_PROPERTY, String.valueOf(poolSize));
+			}
+			return new HttpConnector(this);
+		}
+	}
+
+	/**
+	 * 一次请求使用的连接，限制了每主机连接数时持有所在主机的一个名额。
+	 * 调用方忘记关闭时，名额在Connection被回收时归还
+	 */
+	public static final class Connection {
+		private final HttpURLConnection conn;
+		private final Semaphore permit;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Connection(HttpURLConnection conn, Semaphore permit) {
+			this.conn = conn;
+			this.permit = permit;
+		}
+
+		public HttpURLConnection get() {
+			return conn;
+		}
+
+		/**
+		 * @param reusable
+		 *            响应已读完并关闭，连接可以留在keep-alive池中
+		 */
+		public void close(boolean reusable) {
+			if (closed.compareAndSet(false, true)) {
+				try {
+					if (!reusable) {
+						conn.disconnect();
+					}
+				} finally {
+					if (permit != null) {
+						permit.release();
+					}
+				}
+			}
+		}
+
+		@Override
+		protected void finalize() throws Throwable {
+			try {
+				// 只归还名额，连接留给HttpURLConnection自己回收
+				if (permit != null && closed.compareAndSet(false, true)) {
+					permit.release();
+				}
+			} finally {
+				super.finalize();
+			}
+		}
+
+		/**
+		 * 返回的流关闭时连接随之close(true)，适合把响应流交给调用方的情况
+		 */
+		public InputStream getInputStream() throws IOException {
+			return new FilterInputStream(conn.getInputStream()) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						Connection.this.close(true);
+					}
+				}
+			};
+		}
+	}
+
+	private HttpConnector(Builder builder) {
+		connectTimeout = builder.connectTimeout;
+		readTimeout = builder.readTimeout;
+		maxConnectionsPerHost = builder.maxConnectionsPerHost;
+		userAgent = builder.userAgent;
+	}
+
+	public static HttpConnector getDefault() {
+		HttpConnector connector = sDefault;
+		if (connector == null) {
+			synchronized (HttpConnector.class) {
+				if (sDefault == null) {
+					sDefault = new Builder().build();
+				}
+				connector = sDefault;
+			}
+		}
+		return connector;
+	}
+
+	/**
+	 * 替换默认实例，HttpUploadImage、Downloader、HttpCache都使用默认实例
+	 */
+	public static void setDefault(HttpConnector connector) {
+		sDefault = connector;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * @return 同一主机同时打开的连接数上限，0表示不限制
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * @return HttpURLConnection连接池每个地址保留的空闲连接数，
+	 *         即系统属性http.maxConnections，没有设置时为DEFAULT_POOL_SIZE
+	 */
+	public static int getPoolSize() {
+		try {
+			return Integer.parseInt(System.getProperty(POOL_SIZE_PROPERTY,
+					String.valueOf(DEFAULT_POOL_SIZE)));
+		} catch (NumberFormatException e) {
+			return DEFAULT_POOL_SIZE;
+		}
+	}
+
+	/**
+	 * 打开连接，设置好超时和请求头，还没有发出请求。
+	 * 同一主机的连接数已达上限时最多等待readTimeout，仍然没有名额时抛出
+	 * SocketTimeoutException；打开失败时名额立即归还。
+	 */
+	public Connection open(String url, String method) throws IOException {
+		URL target = new URL(url);
+		Semaphore permit = acquire(target);
+		boolean ok = false;
+		try {
+			HttpURLConnection conn = (HttpURLConnection) target
+					.openConnection();
+			conn.setConnectTimeout(connectTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setRequestMethod(method);
+			conn.setRequestProperty("Connection", "Keep-Alive");
+			if (userAgent != null) {
+				conn.setRequestProperty("User-Agent", userAgent);
+			}
+			Connection connection = new Connection(conn, permit);
+			ok = true;
+			return connection;
+		} finally {
+			if (!ok && permit != null) {
+				permit.release();
+			}
+		}
+	}
+
+	/**
+	 * 占用target所在主机的一个名额，不限制时返回null
+	 */
+	private Semaphore acquire(URL target) throws IOException {
+		if (maxConnectionsPerHost <= 0) {
+			return null;
+		}
+		String host = target.getProtocol() + "://" + target.getHost() + ":"
+				+ (target.getPort() != -1 ? target.getPort() : target
+						.getDefaultPort());
+		Semaphore permit = hostPermits.get(host);
+		if (permit == null) {
+			permit = new Semaphore(maxConnectionsPerHost);
+			Semaphore old = hostPermits.putIfAbsent(host, permit);
+			if (old != null) {
+				permit = old;
+			}
+		}
+		try {
+			if (!permit.tryAcquire(readTimeout, TimeUnit.MILLISECONDS)) {
+				throw new SocketTimeoutException("too many connections to "
+						+ target.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for "
+					+ target.getHost());
+		}
+		return permit;
+	}
+}
@@ -0,0 +1,22 @@
+package com.lhdz.util;
+
+import java.io.IOException;
+
+/**
+ * 服务器返回了非200的响应码
+ */
+public class HttpResponseException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int responseCode;
+
+	public HttpResponseException(int responseCode) {
+		super("远程服务器连接失败,错误代码:" + responseCode);
+		this.responseCode = responseCode;
+	}
+
+	public int getResponseCode() {
+		return responseCode;
+	}
+}
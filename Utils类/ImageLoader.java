@@ -0,0 +1,282 @@
+package com.lhdz.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * 异步图片加载。解码在线程数等于CPU核数的线程池中进行，结果在回调线程(默认UI线程)交给目标。
+ *
+ * 队列按优先级排序，同优先级后提交的先解码(LIFO)，列表快速滚动时当前屏幕上的图片先出来。
+ * 每个目标(ImageTarget.getKey())同时只有一个有效请求，视图被复用后旧的请求自动取消，
+ * 旧图片不会显示到新位置上。同一路径、同一尺寸正在排队或解码时，新的请求合并到同一个任务。
+ */
+public class ImageLoader {
+
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_HIGH = 2;
+
+	/**
+	 * 实际的解码实现
+	 */
+	public interface Decoder {
+		/**
+		 * 内存缓存中已有的图片，没有时返回null。在调用load()的线程执行，不能读文件
+		 */
+		Bitmap getCached(String path, int size);
+
+		/**
+		 * 在工作线程执行
+		 */
+		Bitmap decode(String path, int size) throws Exception;
+	}
+
+	private static ImageLoader sDefault;
+
+	private final ThreadPoolExecutor workers;
+	private final Executor callbackExecutor;
+	private final Decoder decoder;
+	private final AtomicLong sequence = new AtomicLong();
+	// 以下两个map由this保护
+	private final HashMap<String, Job> jobs = new HashMap<String, Job>();
+	private final HashMap<Object, Request> requests = new HashMap<Object, Request>();
+
+	/**
+	 * 目标的一次加载请求，对象本身就是该目标当前的令牌
+	 */
+	private static final class Request {
+		final ImageTarget target;
+		final Object key;
+		final Job job;
+
+		Request(ImageTarget target, Object key, Job job) {
+			this.target = target;
+			this.key = key;
+			this.job = job;
+		}
+	}
+
+	/**
+	 * 同一路径、尺寸的解码任务，可以对应多个请求
+	 */
+	private final class Job implements Runnable, Comparable<Job> {
+		final String path;
+		final int size;
+		final String jobKey;
+		final List<Request> waiting = new ArrayList<Request>(1);
+		int priority;
+		long order;
+		boolean started;
+
+		Job(String path, int size, String jobKey) {
+			this.path = path;
+			this.size = size;
+			this.jobKey = jobKey;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+			// 后提交的排在前面
+			return order > other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		@Override
+		public void run() {
+			synchronized (ImageLoader.this) {
+				if (waiting.isEmpty()) {
+					removeJob(this);
+					return;
+				}
+				started = true;
+			}
+			Bitmap bitmap = null;
+			Throwable error = null;
+			try {
+				bitmap = decoder.decode(path, size);
+				if (bitmap == null) {
+					error = new IOException("cannot decode " + path);
+				}
+			} catch (Throwable e) {
+				error = e;
+			}
+			final List<Request> done;
+			synchronized (ImageLoader.this) {
+				removeJob(this);
+				done = new ArrayList<Request>(waiting);
+				waiting.clear();
+			}
+			if (done.isEmpty()) {
+				return;
+			}
+			final Bitmap result = bitmap;
+			final Throwable failure = error;
+			callbackExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					for (Request request : done) {
+						deliver(request, result, failure);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param threads
+	 *            解码线程数
+	 * @param callbackExecutor
+	 *            执行目标回调的线程
+	 */
+	public ImageLoader(int threads, Executor callbackExecutor, Decoder decoder) {
+		this.callbackExecutor = callbackExecutor;
+		this.decoder = decoder;
+		final AtomicInteger count = new AtomicInteger();
+		workers = new ThreadPoolExecutor(threads, threads, 30,
+				TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ImageLoader-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		workers.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 默认实例：线程数等于CPU核数，在UI线程回调，使用ImageUtils.showPhoto()的解码方式
+	 */
+	public static synchronized ImageLoader getDefault() {
+		if (sDefault == null) {
+			final Handler handler = new Handler(Looper.getMainLooper());
+			sDefault = new ImageLoader(Runtime.getRuntime()
+					.availableProcessors(), new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					handler.post(command);
+				}
+			}, new Decoder() {
+				@Override
+				public Bitmap getCached(String path, int size) {
+					return ImageUtils.getCachedPhoto(path, size);
+				}
+
+				@Override
+				public Bitmap decode(String path, int size) {
+					return ImageUtils.loadPhoto(path, size);
+				}
+			});
+		}
+		return sDefault;
+	}
+
+	public void load(ImageTarget target, String path, int size) {
+		load(target, path, size, PRIORITY_NORMAL);
+	}
+
+	/**
+	 * 加载图片到目标，取消该目标之前的请求。内存缓存命中时直接回调。
+	 */
+	public void load(ImageTarget target, String path, int size, int priority) {
+		Object key = target.getKey();
+		Bitmap cached = decoder.getCached(path, size);
+		if (cached != null) {
+			cancel(key);
+			target.onLoaded(cached);
+			return;
+		}
+		Job submit = null;
+		synchronized (this) {
+			cancelLocked(key);
+			String jobKey = size + ":" + path;
+			Job job = jobs.get(jobKey);
+			if (job == null) {
+				job = new Job(path, size, jobKey);
+				jobs.put(jobKey, job);
+				submit = job;
+			} else if (!job.started && workers.remove(job)) {
+				// 还在排队，按新的请求重新排序
+				submit = job;
+			}
+			if (submit != null) {
+				submit.priority = Math.max(submit.priority, priority);
+				submit.order = sequence.incrementAndGet();
+			}
+			Request request = new Request(target, key, job);
+			job.waiting.add(request);
+			requests.put(key, request);
+		}
+		if (submit != null) {
+			workers.execute(submit);
+		}
+	}
+
+	/**
+	 * 取消目标当前的请求；没有其他请求等待的任务如果还在排队，直接从队列移除
+	 */
+	public synchronized void cancel(Object key) {
+		cancelLocked(key);
+	}
+
+	private void cancelLocked(Object key) {
+		Request request = requests.remove(key);
+		if (request == null) {
+			return;
+		}
+		Job job = request.job;
+		job.waiting.remove(request);
+		if (job.waiting.isEmpty() && !job.started && workers.remove(job)) {
+			removeJob(job);
+		}
+	}
+
+	private void removeJob(Job job) {
+		if (jobs.get(job.jobKey) == job) {
+			jobs.remove(job.jobKey);
+		}
+	}
+
+	private void deliver(Request request, Bitmap bitmap, Throwable error) {
+		synchronized (this) {
+			if (requests.get(request.key) != request) {
+				// 目标已经发起了新的请求
+				return;
+			}
+			requests.remove(request.key);
+		}
+		if (error == null) {
+			request.target.onLoaded(bitmap);
+		} else {
+			request.target.onFailed(error);
+		}
+	}
+
+	/**
+	 * 排队中的任务数
+	 */
+	public int getQueuedCount() {
+		return workers.getQueue().size();
+	}
+
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+}
@@ -0,0 +1,20 @@
+package com.lhdz.util;
+
+import android.graphics.Bitmap;
+
+/**
+ * ImageLoader的加载目标。回调都在ImageLoader的回调线程(默认UI线程)执行。
+ * 测试时可以实现一个不依赖View的假目标。
+ */
+public interface ImageTarget {
+
+	/**
+	 * 标识同一个显示位置，列表中被复用的视图必须返回同一个对象；
+	 * 同一个key发起新的加载时，之前未完成的加载被取消
+	 */
+	Object getKey();
+
+	void onLoaded(Bitmap bitmap);
+
+	void onFailed(Throwable error);
+}
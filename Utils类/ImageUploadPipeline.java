@@ -0,0 +1,138 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+
+/**
+ * 图片上传流水线：解码 → 降采样 → JPEG编码 → multipart请求体。
+ * 编码输出经过有界管道直接写入上传请求，不写临时文件；
+ * 第N张图片上传的同时，第N+1张已经在解码和编码。
+ */
+public class ImageUploadPipeline {
+
+	public static final int DEFAULT_QUALITY = 80;
+	public static final int DEFAULT_PIPE_SIZE = 64 * 1024;
+
+	private final int baseSize;
+	private final int quality;
+	private final int pipeSize;
+	private final ExecutorService encoder;
+
+	/**
+	 * @param baseSize
+	 *            降采样后最小边不小于该值，同ImageUtils.BASE_SIZE_*
+	 */
+	public ImageUploadPipeline(int baseSize) {
+		this(baseSize, DEFAULT_QUALITY, DEFAULT_PIPE_SIZE);
+	}
+
+	/**
+	 * @param quality
+	 *            JPEG质量
+	 * @param pipeSize
+	 *            每张图片编码输出的缓冲字节数
+	 */
+	public ImageUploadPipeline(int baseSize, int quality, int pipeSize) {
+		this.baseSize = baseSize;
+		this.quality = quality;
+		this.pipeSize = pipeSize;
+		// 一个线程为正在上传的图片编码，另一个提前处理下一张
+		encoder = Executors.newFixedThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ImageUploadPipeline");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 依次上传，每张图片一个请求，字段名与HttpUploadImage.uploadImage相同。
+	 * 在调用线程中发送，返回与paths顺序对应的结果。
+	 */
+	public List<BatchUploader.UploadResult> uploadAll(String url,
+			List<String> paths) {
+		List<BatchUploader.UploadResult> results = new ArrayList<BatchUploader.UploadResult>(
+				paths.size());
+		BoundedBytePipe next = paths.isEmpty() ? null : encode(paths.get(0));
+		for (int i = 0; i < paths.size(); i++) {
+			BoundedBytePipe current = next;
+			next = i + 1 < paths.size() ? encode(paths.get(i + 1)) : null;
+			results.add(send(url, paths.get(i), current));
+		}
+		return results;
+	}
+
+	private BatchUploader.UploadResult send(String url, String path,
+			BoundedBytePipe pipe) {
+		long start = System.nanoTime();
+		String name = new File(path).getName();
+		MultipartBody body = new MultipartBody().addStream("uploadedfile"
+				+ path, name, "image/jpeg", pipe.getInputStream());
+		try {
+			String response = MultipartUploader.upload(url, body);
+			return new BatchUploader.UploadResult(path, response, null,
+					pipe.getTotalBytes(), elapsedMs(start));
+		} catch (Exception e) {
+			return new BatchUploader.UploadResult(path, null, e, 0,
+					elapsedMs(start));
+		} finally {
+			// 上传失败时让阻塞在管道上的编码线程退出
+			try {
+				pipe.getInputStream().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private BoundedBytePipe encode(final String path) {
+		final BoundedBytePipe pipe = new BoundedBytePipe(pipeSize);
+		encoder.execute(new Runnable() {
+			@Override
+			public void run() {
+				Bitmap bitmap = null;
+				try {
+					bitmap = BitmapPool.getDefault().decodeFile(path,
+							DecodePlanner.plan(path, baseSize, baseSize, true));
+					if (bitmap == null) {
+						throw new IOException("cannot decode " + path);
+					}
+					OutputStream out = pipe.getOutputStream();
+					if (!bitmap.compress(Bitmap.CompressFormat.JPEG, quality,
+							out)) {
+						// 不能关闭输出流，否则读取方看到正常结束，上传不完整的JPEG
+						pipe.fail(new IOException("cannot encode " + path));
+						return;
+					}
+					out.close();
+				} catch (Throwable e) {
+					pipe.fail(e);
+				} finally {
+					if (bitmap != null) {
+						BitmapPool.getDefault().put(bitmap);
+					}
+				}
+			}
+		});
+		return pipe;
+	}
+
+	private static long elapsedMs(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	public void shutdown() {
+		encoder.shutdown();
+	}
+}
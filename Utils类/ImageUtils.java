@@ -1,7 +1,5 @@
 ﻿package com.lhdz.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -9,11 +7,8 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
-import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Log;
 import android.widget.ImageView;
@@ -30,42 +25,104 @@ public class ImageUtils {
 	public static final int BASE_SIZE_480 = 480;
 
 	/**
-	 * 获取压缩后图片。
+	 * showPhoto()显示的宽度和最大高度
+	 */
+	private static final int PHOTO_WIDTH = 300;
+	private static final int PHOTO_MAX_HEIGHT = 350;
+
+	private static volatile ThumbnailDiskCache sThumbnailCache;
+
+	/**
+	 * 设置缩略图磁盘缓存，设置后resize()、resizeCached()和showPhoto()优先解码缓存中的缩略图。
+	 * 一般在Application.onCreate()中调用ThumbnailDiskCache.open(context)。
+	 * 
+	 * @param cache
+	 *            为null时直接解码原图
+	 */
+	public static void setThumbnailCache(ThumbnailDiskCache cache) {
+		sThumbnailCache = cache;
+	}
+
+	/**
+	 * 获取压缩后图片。每次都解码，调用方持有返回的Bitmap，用完可以recycle()。
 	 * 
 	 * @param path
 	 *            原图路径
 	 * @return Bitmap
 	 */
 	public static Bitmap resize(String path, int baseSize) {
-		Bitmap bm = null;
+		return resize(path, baseSize, JpegCompressor.DEFAULT_TARGET_BYTES);
+	}
+
+	/**
+	 * 获取压缩后图片。
+	 * 
+	 * @param path
+	 *            原图路径
+	 * @param targetBytes
+	 *            JPEG质量压缩的目标大小
+	 * @return Bitmap
+	 */
+	public static Bitmap resize(String path, int baseSize, int targetBytes) {
+		if (TextUtils.isEmpty(path)) {
+			return null;
+		}
+		return decodeResized(path, baseSize, targetBytes);
+	}
+
+	/**
+	 * 同resize()，但结果放入BitmapMemoryCache，同一张图片重复显示时不再解码。
+	 * 返回的Bitmap是共享的，不要recycle()；上传等一次性的用途用resize()。
+	 * 
+	 * @param path
+	 *            原图路径
+	 * @return Bitmap
+	 */
+	public static Bitmap resizeCached(String path, int baseSize) {
+		return resizeCached(path, baseSize, JpegCompressor.DEFAULT_TARGET_BYTES);
+	}
+
+	/**
+	 * 同resize(path, baseSize, targetBytes)，结果放入BitmapMemoryCache，不要recycle()。
+	 */
+	public static Bitmap resizeCached(String path, int baseSize,
+			int targetBytes) {
 		if (TextUtils.isEmpty(path)) {
 			return null;
 		}
-		// 图片参数。
-		BitmapFactory.Options options = new BitmapFactory.Options();
-		// 只计算几何尺寸，不返回bitmap，不占内存。
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(path, options);
-		// 宽、高。
-		int w = options.outWidth;
-		int h = options.outHeight;
-		Log.i(TAG, "--img src,w:" + w + " h:" + h);
-		// 最小边。
-		int min = w < h ? w : h;
-		// 压缩比。
-		int rate = min / baseSize;
-		if (rate <= 0) {
-			rate = 1;
+		// 先查内存缓存，命中时不读文件
+		BitmapMemoryCache.Key key = new BitmapMemoryCache.Key(path, new File(
+				path).lastModified(), baseSize, 0, "resize:" + targetBytes);
+		Bitmap cached = BitmapMemoryCache.getDefault().get(key);
+		if (cached != null) {
+			return cached;
+		}
+		Bitmap result = decodeResized(path, baseSize, targetBytes);
+		BitmapMemoryCache.getDefault().put(key, result);
+		return result;
+	}
+
+	private static Bitmap decodeResized(String path, int baseSize,
+			int targetBytes) {
+		String source = decodePath(path, baseSize);
+		Bitmap bm = decodeForResize(source, baseSize);
+		if (bm == null && !source.equals(path)) {
+			// 取得路径后缩略图被淘汰或被系统清理，改为解码原图
+			bm = decodeForResize(path, baseSize);
 		}
-		// 设置压缩参数。
-		options.inSampleSize = rate;
-		options.inJustDecodeBounds = false;
-		// 压缩。
-		bm = BitmapFactory.decodeFile(path, options);
 		if (bm != null) {
 			Log.i(TAG, "--img dst,w:" + bm.getWidth() + " h:" + bm.getHeight());
 		}
-		return compressImage(bm);
+		return compressImage(bm, targetBytes);
+	}
+
+	private static Bitmap decodeForResize(String source, int baseSize) {
+		// 只读尺寸，按最小边不小于baseSize选择2的幂采样率；这次解码的结果只用来压成JPEG，可以用RGB_565。
+		DecodePlanner.Plan plan = DecodePlanner.plan(source, baseSize,
+				baseSize, true);
+		Log.i(TAG, "--img src,w:" + plan.srcWidth + " h:" + plan.srcHeight);
+		return plan.isValid() ? BitmapPool.getDefault().decodeFile(source,
+				plan) : null;
 	}
 
 	/**
@@ -77,20 +134,11 @@ public class ImageUtils {
 	 * @return path
 	 */
 	public static String getAlbumImagePath(Context context, Uri uri) {
-		String path = "";
-		// 查询的字段
-		String[] proj = { MediaStore.Images.Media.DATA };
-		// 得到游标
-		Cursor cursor = context.getContentResolver().query(uri, proj, null,
-				null, null);
-		// 获取索引
-		int column_index = cursor
-				.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-		cursor.moveToFirst();
-		// 根据索引拿字段值
-		path = cursor.getString(column_index);
-		// 关闭游标
-		cursor.close();
+		// 经过MediaPathResolver缓存，同一张图片不重复查询
+		String path = MediaPathResolver.getDefault(context).resolve(uri);
+		if (path == null) {
+			path = "";
+		}
 		Log.i(TAG, "--path:" + path);
 		return path;
 	}
@@ -155,33 +203,88 @@ public class ImageUtils {
 		String picturePath = path;
 		if (picturePath.equals(""))
 			return;
-		// 缩放图片, width, height 按相同比例缩放图片
-		BitmapFactory.Options options = new BitmapFactory.Options();
-		// options 设为true时，构造出的bitmap没有图片，只有一些长宽等配置信息，但比较快，设为false时，才有图片
-		options.inJustDecodeBounds = true;
-		Bitmap bitmap = BitmapFactory.decodeFile(picturePath, options);
-		int scale = (int) (options.outWidth / (float) 300);
-		if (scale <= 0)
-			scale = 1;
-		options.inSampleSize = scale;
-		options.inJustDecodeBounds = false;
-		bitmap = BitmapFactory.decodeFile(picturePath, options);
-		photo.setImageBitmap(bitmap);
-		photo.setMaxHeight(350);
+		photo.setImageBitmap(loadPhoto(picturePath, PHOTO_WIDTH));
+		photo.setMaxHeight(PHOTO_MAX_HEIGHT);
+	}
+
+	/**
+	 * 与showPhoto()相同，但在ImageLoader的线程池中解码，适合在UI线程和列表中调用。
+	 * 视图被复用后再次调用时，之前未完成的加载被取消。
+	 */
+	public static void showPhotoAsync(ImageView photo, String path) {
+		if (path.equals(""))
+			return;
+		ImageLoader.getDefault().load(new ImageViewTarget(photo) {
+			@Override
+			public void onLoaded(Bitmap bitmap) {
+				super.onLoaded(bitmap);
+				view.setMaxHeight(PHOTO_MAX_HEIGHT);
+			}
+		}, path, PHOTO_WIDTH);
+	}
+
+	static Bitmap getCachedPhoto(String path, int width) {
+		return BitmapMemoryCache.getDefault().get(photoKey(path, width));
+	}
+
+	/**
+	 * 按宽度解码图片，结果放入内存缓存
+	 */
+	static Bitmap loadPhoto(String path, int width) {
+		BitmapMemoryCache.Key key = photoKey(path, width);
+		Bitmap cached = BitmapMemoryCache.getDefault().get(key);
+		if (cached != null) {
+			return cached;
+		}
+		String source = decodePath(path, width);
+		Bitmap bitmap = decodeForWidth(source, width);
+		if (bitmap == null && !source.equals(path)) {
+			// 缩略图已被淘汰，改为解码原图
+			bitmap = decodeForWidth(path, width);
+		}
+		BitmapMemoryCache.getDefault().put(key, bitmap);
+		return bitmap;
+	}
+
+	private static Bitmap decodeForWidth(String source, int width) {
+		// 缩放图片, width, height 按相同比例缩放图片，宽度不小于width的最大2的幂采样率
+		DecodePlanner.Plan plan = DecodePlanner.plan(source, width, 0, false);
+		return plan.isValid() ? BitmapPool.getDefault().decodeFile(source,
+				plan) : null;
+	}
+
+	private static BitmapMemoryCache.Key photoKey(String path, int width) {
+		return new BitmapMemoryCache.Key(path, new File(path).lastModified(),
+				width, 0, "showPhoto");
 	}
 	
-	private static Bitmap compressImage(Bitmap image) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        image.compress(Bitmap.CompressFormat.JPEG, 100, baos);//质量压缩方法，这里100表示不压缩，把压缩后的数据存放到baos中
-        int options = 100;
-        while ( baos.toByteArray().length / 1024>100) {    //循环判断如果压缩后图片是否大于100kb,大于继续压缩        
-            baos.reset();//重置baos即清空baos
-            options -= 10;//每次都减少10
-            image.compress(Bitmap.CompressFormat.JPEG, options, baos);//这里压缩options%，把压缩后的数据存放到baos中
-
-        }
-        ByteArrayInputStream isBm = new ByteArrayInputStream(baos.toByteArray());//把压缩后的数据baos存放到ByteArrayInputStream中
-        Bitmap bitmap = BitmapFactory.decodeStream(isBm, null, null);//把ByteArrayInputStream数据生成图片
-        return bitmap;
-    }
+	/**
+	 * 有缩略图缓存时返回不小于目标尺寸的缩略图路径，否则返回原图路径
+	 */
+	private static String decodePath(String path, int targetSize) {
+		ThumbnailDiskCache cache = sThumbnailCache;
+		if (cache == null) {
+			return path;
+		}
+		return cache.getDecodePath(path, targetSize);
+	}
+
+	/**
+	 * 压成JPEG后重新解码。返回给调用方显示的Bitmap固定为ARGB_8888，
+	 * 渐变不会出现RGB_565的色带，与原来的输出一致。
+	 */
+	private static Bitmap compressImage(Bitmap image, int targetBytes) {
+		if (image == null) {
+			return null;
+		}
+		JpegCompressor.Result result = JpegCompressor.forTarget(targetBytes)
+				.compress(image);
+		// 原图编码后不再使用，放回池中
+		BitmapPool pool = BitmapPool.getDefault();
+		pool.put(image);
+		Bitmap compressed = pool.decodeByteArray(result.array(), 0,
+				result.size(), Bitmap.Config.ARGB_8888);
+		result.release();
+		return compressed;
+	}
 }
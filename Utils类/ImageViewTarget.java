@@ -0,0 +1,31 @@
+package com.lhdz.util;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * 以ImageView本身为key的加载目标，失败时清空图片
+ */
+public class ImageViewTarget implements ImageTarget {
+
+	protected final ImageView view;
+
+	public ImageViewTarget(ImageView view) {
+		this.view = view;
+	}
+
+	@Override
+	public Object getKey() {
+		return view;
+	}
+
+	@Override
+	public void onLoaded(Bitmap bitmap) {
+		view.setImageBitmap(bitmap);
+	}
+
+	@Override
+	public void onFailed(Throwable error) {
+		view.setImageBitmap(null);
+	}
+}
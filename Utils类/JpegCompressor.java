@@ -0,0 +1,202 @@
+package com.lhdz.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * 按目标大小压缩JPEG。二分查找不超过目标字节数的最高质量，
+ * 精度与原来每次减10相同，一般3~4次编码即可确定(原来最多10次)；
+ * 起始质量根据上一次的结果和像素数预测，预测准确时1~2次编码。
+ * 大小直接取ByteArrayOutputStream.size()，不复制缓冲区；缓冲区从ByteArrayPool取，
+ * 用完调用Result.release()放回。
+ */
+public class JpegCompressor {
+
+	public static final int DEFAULT_TARGET_BYTES = 100 * 1024;
+	public static final int MIN_QUALITY = 5;
+	public static final int MAX_QUALITY = 100;
+	private static final int QUALITY_STEP = 10;
+
+	private static final ConcurrentHashMap<Integer, JpegCompressor> compressors = new ConcurrentHashMap<Integer, JpegCompressor>();
+
+	private final int targetBytes;
+
+	// 上一次压缩的结果，用于预测下一张图片的起始质量，多线程下允许互相覆盖
+	private volatile int lastQuality = -1;
+	private volatile float lastBytesPerPixel;
+
+	/**
+	 * 压缩结果
+	 */
+	public static class Result {
+		public final int quality;
+		/** 编码次数 */
+		public final int encodes;
+		private final Buffer buffer;
+
+		Result(int quality, int encodes, Buffer buffer) {
+			this.quality = quality;
+			this.encodes = encodes;
+			this.buffer = buffer;
+		}
+
+		public int size() {
+			return buffer.size();
+		}
+
+		/**
+		 * 直接返回内部数组，有效长度为size()
+		 */
+		public byte[] array() {
+			return buffer.array();
+		}
+
+		public ByteArrayInputStream toInputStream() {
+			return new ByteArrayInputStream(buffer.array(), 0, buffer.size());
+		}
+
+		/**
+		 * 把缓冲区放回ByteArrayPool，之后不能再使用array()和toInputStream()
+		 */
+		public void release() {
+			ByteArrayPool.getDefault().put(buffer.array());
+		}
+	}
+
+	/**
+	 * 可以直接访问内部数组的ByteArrayOutputStream
+	 */
+	static class Buffer extends ByteArrayOutputStream {
+		Buffer(byte[] initial) {
+			super(0);
+			buf = initial;
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+
+	public JpegCompressor(int targetBytes) {
+		this.targetBytes = targetBytes;
+	}
+
+	/**
+	 * 目标100KB的默认实例
+	 */
+	public static JpegCompressor getDefault() {
+		return forTarget(DEFAULT_TARGET_BYTES);
+	}
+
+	/**
+	 * 同一目标大小共用一个实例，保留预测用的历史结果
+	 */
+	public static JpegCompressor forTarget(int targetBytes) {
+		JpegCompressor compressor = compressors.get(targetBytes);
+		if (compressor == null) {
+			compressor = new JpegCompressor(targetBytes);
+			JpegCompressor old = compressors.putIfAbsent(targetBytes,
+					compressor);
+			if (old != null) {
+				compressor = old;
+			}
+		}
+		return compressor;
+	}
+
+	public int getTargetBytes() {
+		return targetBytes;
+	}
+
+	public Result compress(Bitmap image) {
+		long start = System.nanoTime();
+		int pixels = image.getWidth() * image.getHeight();
+		ByteArrayPool pool = ByteArrayPool.getDefault();
+		Buffer probe = new Buffer(pool.get(Math.min(targetBytes * 2,
+				ByteArrayPool.MAX_ARRAY_SIZE)));
+		Buffer best = null;
+		int bestQuality = -1;
+		int encodes = 0;
+
+		// [low, high]内为尚未确定的质量
+		int low = MIN_QUALITY;
+		int high = MAX_QUALITY;
+		int quality = predictQuality(pixels);
+		// 有预测值时先从预测值向两侧倍增步长找到区间，再二分
+		boolean gallop = quality != MAX_QUALITY;
+		boolean fitted = false;
+		boolean exceeded = false;
+		int step = QUALITY_STEP;
+		while (true) {
+			probe.reset();
+			image.compress(Bitmap.CompressFormat.JPEG, quality, probe);
+			encodes++;
+			if (probe.size() <= targetBytes) {
+				Buffer swap = best;
+				best = probe;
+				bestQuality = quality;
+				probe = swap != null ? swap : new Buffer(pool.get(probe.size()));
+				low = quality + 1;
+				fitted = true;
+			} else {
+				high = quality - 1;
+				exceeded = true;
+				if (quality <= MIN_QUALITY) {
+					if (best == null) {
+						// 最低质量也超过目标，只能返回最低质量的结果
+						best = probe;
+						bestQuality = quality;
+					}
+					break;
+				}
+			}
+			if (fitted && high - bestQuality < QUALITY_STEP) {
+				break;
+			}
+			if (low > high) {
+				quality = MIN_QUALITY;
+			} else if (gallop && !exceeded) {
+				quality = Math.min(high, quality + step);
+				step *= 2;
+			} else if (gallop && !fitted) {
+				quality = Math.max(low, quality - step);
+				step *= 2;
+			} else {
+				quality = (low + high + 1) / 2;
+			}
+		}
+		if (probe != best) {
+			pool.put(probe.array());
+		}
+		if (pixels > 0) {
+			lastQuality = bestQuality;
+			lastBytesPerPixel = best.size() / (float) pixels;
+		}
+		if (Metrics.isEnabled()) {
+			Metrics.compression(System.nanoTime() - start,
+					(long) image.getRowBytes() * image.getHeight(), best.size(),
+					encodes);
+		}
+		return new Result(bestQuality, encodes, best);
+	}
+
+	/**
+	 * 没有历史时先试最高质量(小图片一次编码即可)；否则按上一次
+	 * 每像素字节数估算当前图片在上一次质量下的大小，按比例调整
+	 */
+	private int predictQuality(int pixels) {
+		int quality = lastQuality;
+		float bytesPerPixel = lastBytesPerPixel;
+		if (quality < 0 || bytesPerPixel <= 0 || pixels <= 0) {
+			return MAX_QUALITY;
+		}
+		float estimate = bytesPerPixel * pixels;
+		if (estimate > targetBytes) {
+			quality = (int) (quality * targetBytes / estimate);
+		}
+		return Math.max(MIN_QUALITY, Math.min(MAX_QUALITY, quality));
+	}
+}
@@ -0,0 +1,262 @@
+package com.finddreams.log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+
+/**
+ * 按tag、类名、包名前缀设置的日志级别阈值，低于阈值的日志不打印。
+ *
+ * 构建后不可修改，配置变化时用LogUtils.setLevelFilter()整体替换。
+ * 预先算出类名规则中最低的阈值，低于它的日志不需要解析调用栈就能直接丢弃；
+ * 只有可能被某条规则放行时，LogUtils才取调用类查表。因此某个类、包的规则
+ * 把阈值降到默认值以下后，该级别所有自动tag的日志都要解析调用栈，
+ * 被过滤掉的也一样；TagLogger在规则替换后只解析一次阈值，不受影响。
+ * 类名到阈值的匹配结果(精确类名 > 最长包名前缀 > 默认)缓存在表中，同一个类只匹配一次。
+ */
+public final class LogLevelFilter {
+
+    /** 关闭全部日志 */
+    public static final int OFF = Log.ASSERT + 1;
+
+    /**
+     * 全部放行，与只用allowD等开关时的行为相同
+     */
+    public static final LogLevelFilter ALL = new Builder(Log.VERBOSE).build();
+
+    private static final int MAX_CACHED_CLASSES = 1024;
+
+    private final int defaultLevel;
+    private final int minLevel;
+    private final int minClassLevel;
+    private final Map<String, Integer> tagLevels;
+    private final Map<String, Integer> classLevels;
+    private final String[] prefixes;
+    private final int[] prefixLevels;
+    private final boolean hasClassRules;
+    private final ConcurrentHashMap<String, Integer> resolved = new ConcurrentHashMap<String, Integer>();
+
+    public static final class Builder {
+        private final int defaultLevel;
+        private final Map<String, Integer> tagLevels = new HashMap<String, Integer>();
+        private final Map<String, Integer> classLevels = new HashMap<String, Integer>();
+        private final Map<String, Integer> prefixLevels = new HashMap<String, Integer>();
+
+        /**
+         * @param defaultLevel
+         *            没有匹配规则时的阈值，如Log.INFO
+         */
+        public Builder(int defaultLevel) {
+            this.defaultLevel = defaultLevel;
+        }
+
+        /**
+         * 固定tag(LogUtils.tag())的阈值
+         */
+        public Builder tag(String tag, int level) {
+            tagLevels.put(tag, level);
+            return this;
+        }
+
+        /**
+         * 完整类名的阈值，内部类按外部类匹配
+         */
+        public Builder className(String className, int level) {
+            classLevels.put(className, level);
+            return this;
+        }
+
+        /**
+         * 包名前缀的阈值，如"com.lhdz.util"，匹配该包及子包中的类
+         */
+        public Builder packagePrefix(String prefix, int level) {
+            prefixLevels.put(prefix.endsWith(".") ? prefix : prefix + ".",
+                    level);
+            return this;
+        }
+
+        public LogLevelFilter build() {
+            return new LogLevelFilter(this);
+        }
+    }
+
+    private LogLevelFilter(Builder builder) {
+        defaultLevel = builder.defaultLevel;
+        tagLevels = new HashMap<String, Integer>(builder.tagLevels);
+        classLevels = new HashMap<String, Integer>(builder.classLevels);
+        // 长的前缀先匹配
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(
+                builder.prefixLevels.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a,
+                    Map.Entry<String, Integer> b) {
+                return b.getKey().length() - a.getKey().length();
+            }
+        });
+        prefixes = new String[entries.size()];
+        prefixLevels = new int[entries.size()];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = entries.get(i).getKey();
+            prefixLevels[i] = entries.get(i).getValue();
+        }
+        hasClassRules = !classLevels.isEmpty() || prefixes.length > 0;
+        int min = defaultLevel;
+        for (int level : classLevels.values()) {
+            min = Math.min(min, level);
+        }
+        for (int level : prefixLevels) {
+            min = Math.min(min, level);
+        }
+        minClassLevel = min;
+        for (int level : tagLevels.values()) {
+            min = Math.min(min, level);
+        }
+        minLevel = min;
+    }
+
+    /**
+     * 解析配置字符串，便于从服务器或配置文件下发。条目用","或";"分隔，格式为key=级别:
+     * "*"为默认阈值，"tag:名称"为tag，以".*"结尾为包名前缀，其他为完整类名。
+     * 级别为V/D/I/W/E/A/OFF(或完整名称如DEBUG)。
+     * 例: "*=I, com.lhdz.util.*=D, com.lhdz.util.HttpCache=V, tag:Upload=W"
+     *
+     * @throws IllegalArgumentException
+     *             格式错误
+     */
+    public static LogLevelFilter parse(String config) {
+        int defaultLevel = Log.VERBOSE;
+        List<String[]> rules = new ArrayList<String[]>();
+        for (String entry : config.split("[,;]")) {
+            entry = entry.trim();
+            if (entry.length() == 0) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("bad entry: " + entry);
+            }
+            String key = entry.substring(0, eq).trim();
+            String level = entry.substring(eq + 1).trim();
+            if (key.equals("*")) {
+                defaultLevel = parseLevel(level);
+            } else {
+                rules.add(new String[] { key, level });
+            }
+        }
+        Builder builder = new Builder(defaultLevel);
+        for (String[] rule : rules) {
+            String key = rule[0];
+            int level = parseLevel(rule[1]);
+            if (key.startsWith("tag:")) {
+                builder.tag(key.substring(4), level);
+            } else if (key.endsWith(".*")) {
+                builder.packagePrefix(key.substring(0, key.length() - 1), level);
+            } else {
+                builder.className(key, level);
+            }
+        }
+        return builder.build();
+    }
+
+    private static int parseLevel(String level) {
+        String upper = level.toUpperCase(Locale.US);
+        if (upper.equals("V") || upper.equals("VERBOSE")) {
+            return Log.VERBOSE;
+        } else if (upper.equals("D") || upper.equals("DEBUG")) {
+            return Log.DEBUG;
+        } else if (upper.equals("I") || upper.equals("INFO")) {
+            return Log.INFO;
+        } else if (upper.equals("W") || upper.equals("WARN")) {
+            return Log.WARN;
+        } else if (upper.equals("E") || upper.equals("ERROR")) {
+            return Log.ERROR;
+        } else if (upper.equals("A") || upper.equals("ASSERT")) {
+            return Log.ASSERT;
+        } else if (upper.equals("OFF") || upper.equals("S")) {
+            return OFF;
+        }
+        throw new IllegalArgumentException("bad level: " + level);
+    }
+
+    /**
+     * 所有规则中最低的阈值，低于它的级别在任何地方都不打印
+     */
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * 默认阈值和类名、包名规则中最低的阈值。自动tag的日志低于它时不需要解析调用栈
+     */
+    int getMinClassLevel() {
+        return minClassLevel;
+    }
+
+    /**
+     * 固定tag的阈值，没有tag规则时按类名(可以为null)匹配
+     */
+    public int levelFor(String tag, String className) {
+        if (tag != null) {
+            Integer level = tagLevels.get(tag);
+            if (level != null) {
+                return level;
+            }
+        }
+        return className != null ? levelForClass(className) : defaultLevel;
+    }
+
+    /**
+     * 类名的阈值：精确类名 > 最长包名前缀 > 默认
+     */
+    public int levelForClass(String className) {
+        if (!hasClassRules) {
+            return defaultLevel;
+        }
+        Integer cached = resolved.get(className);
+        if (cached != null) {
+            return cached;
+        }
+        int level = match(className);
+        if (resolved.size() < MAX_CACHED_CLASSES) {
+            resolved.put(className, level);
+        }
+        return level;
+    }
+
+    private int match(String className) {
+        int inner = className.indexOf('$');
+        String outer = inner > 0 ? className.substring(0, inner) : className;
+        Integer level = classLevels.get(className);
+        if (level == null) {
+            level = classLevels.get(outer);
+        }
+        if (level != null) {
+            return level;
+        }
+        for (int i = 0; i < prefixes.length; i++) {
+            if (outer.startsWith(prefixes[i])) {
+                return prefixLevels[i];
+            }
+        }
+        return defaultLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "LogLevelFilter[default=" + defaultLevel + " min=" + minLevel
+                + " tags=" + tagLevels + " classes=" + classLevels
+                + " prefixes=" + prefixes.length + "]";
+    }
+}
@@ -0,0 +1,224 @@
+package com.finddreams.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * 按调用位置限流，防止循环中的日志刷屏。
+ *
+ * 每个调用位置(自动生成的tag包含类名、方法和行号)有一个令牌桶；TagLogger没有
+ * 调用位置，同一个tag的所有调用共用一个令牌桶和合并状态。
+ * 超出速率的日志在格式化之前丢弃，只计数；该位置下一条被放行的日志前面补一条
+ * "suppressed N messages"。时间窗口内同一位置连续的相同内容只打印第一条，
+ * 该位置内容变化时补一条"last message repeated N times"。
+ * 位置不再打日志时(令牌桶已经恢复、合并窗口已经结束)，这两条汇总由任意位置的
+ * 下一条日志在打印之前补上，没有后续日志则一直不会输出。
+ * 计数全部用CAS，多线程同时打日志时不加锁。wtf级别不限流。
+ */
+public class LogRateLimiter {
+
+    public static final int DEFAULT_PERMITS_PER_SECOND = 20;
+    public static final int DEFAULT_BURST = 50;
+    public static final long DEFAULT_DEDUP_WINDOW_MS = 1000;
+
+    private static final int MAX_SITES = 1024;
+
+    /**
+     * 补打汇总的回调，suppressed或repeats为0时不需要输出对应的行
+     */
+    interface Reporter {
+        void report(int level, String tag, int suppressed, int repeats);
+    }
+
+    // 有待报告的位置时，flushExpired()最多每隔这么久检查一次
+    private static final long FLUSH_CHECK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(100);
+
+    /**
+     * 一个调用位置的限流状态
+     */
+    static final class Site {
+        final String tag;
+        // 令牌桶的虚拟到达时间(GCRA)：下一条日志理论上最早的时间
+        final AtomicLong tat;
+        final AtomicInteger suppressed = new AtomicInteger();
+        final AtomicInteger repeats = new AtomicInteger();
+        // 是否在pending队列中
+        final AtomicBoolean pending = new AtomicBoolean();
+        // 上一条不同内容的日志，多线程下允许偶尔多打印一条
+        volatile String lastMessage;
+        volatile int lastLevel;
+        volatile int suppressedLevel;
+        volatile long lastNanos;
+
+        Site(String tag, long now) {
+            this.tag = tag;
+            tat = new AtomicLong(now);
+        }
+    }
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final long windowNanos;
+    private final ConcurrentHashMap<String, Site> sites = new ConcurrentHashMap<String, Site>();
+    // 有未报告的丢弃或重复次数的位置
+    private final ConcurrentLinkedQueue<Site> pending = new ConcurrentLinkedQueue<Site>();
+    private volatile long nextFlushCheck;
+
+    public LogRateLimiter() {
+        this(DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST, DEFAULT_DEDUP_WINDOW_MS);
+    }
+
+    /**
+     * @param permitsPerSecond
+     *            每个调用位置每秒允许的日志条数
+     * @param burst
+     *            允许连续打印的条数
+     * @param dedupWindowMs
+     *            相同内容合并的时间窗口，0表示不合并
+     */
+    public LogRateLimiter(int permitsPerSecond, int burst, long dedupWindowMs) {
+        intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, permitsPerSecond);
+        toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(dedupWindowMs);
+    }
+
+    /**
+     * 在格式化日志内容之前调用
+     *
+     * @return false表示超出速率，丢弃这条日志
+     */
+    boolean acquire(int level, String tag) {
+        if (level >= Log.ASSERT) {
+            return true;
+        }
+        Site site = site(tag);
+        if (site == null) {
+            return true;
+        }
+        for (;;) {
+            long now = System.nanoTime();
+            long tat = site.tat.get();
+            long base = tat - now > 0 ? tat : now;
+            if (base - now > toleranceNanos) {
+                site.suppressedLevel = level;
+                site.suppressed.incrementAndGet();
+                enqueue(site);
+                return false;
+            }
+            if (site.tat.compareAndSet(tat, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 取出并清零该位置被限流丢弃的条数
+     */
+    int takeSuppressed(String tag) {
+        Site site = sites.get(tag);
+        return site != null && site.suppressed.get() > 0 ? site.suppressed
+                .getAndSet(0) : 0;
+    }
+
+    /**
+     * 与该位置上一条内容比较。
+     *
+     * @return -1表示窗口内的重复内容，应当丢弃；否则返回上一条内容被合并的次数
+     */
+    int collapse(int level, String tag, String msg) {
+        if (windowNanos <= 0 || level >= Log.ASSERT || msg == null) {
+            return 0;
+        }
+        Site site = site(tag);
+        if (site == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        String last = site.lastMessage;
+        if (msg.equals(last) && now - site.lastNanos < windowNanos) {
+            site.repeats.incrementAndGet();
+            enqueue(site);
+            return -1;
+        }
+        site.lastNanos = now;
+        site.lastLevel = level;
+        site.lastMessage = msg;
+        return site.repeats.get() > 0 ? site.repeats.getAndSet(0) : 0;
+    }
+
+    private void enqueue(Site site) {
+        if (!site.pending.get() && site.pending.compareAndSet(false, true)) {
+            pending.add(site);
+        }
+    }
+
+    /**
+     * 报告已经平息的位置的丢弃次数和重复次数：令牌桶已经恢复(之后没有再超速)、
+     * 合并窗口已经结束。每次打印日志之前调用，没有待报告的位置时只是一次队列判空，
+     * 有时最多每100ms遍历一次队列。
+     */
+    void flushExpired(Reporter reporter) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - nextFlushCheck < 0) {
+            return;
+        }
+        nextFlushCheck = now + FLUSH_CHECK_NANOS;
+        for (Site site : pending) {
+            if (site.suppressed.get() > 0 && site.tat.get() - now > 0) {
+                // 还在超速
+                continue;
+            }
+            if (site.repeats.get() > 0 && now - site.lastNanos < windowNanos) {
+                continue;
+            }
+            if (!pending.remove(site)) {
+                continue;
+            }
+            // 先清标记再取计数，之后的丢弃和重复会重新入队，不会漏报
+            site.pending.set(false);
+            int suppressed = site.suppressed.getAndSet(0);
+            int repeats = site.repeats.getAndSet(0);
+            if (suppressed > 0 || repeats > 0) {
+                reporter.report(suppressed > 0 ? site.suppressedLevel
+                        : site.lastLevel, site.tag, suppressed, repeats);
+            }
+        }
+    }
+
+    private Site site(String tag) {
+        if (tag == null) {
+            return null;
+        }
+        Site site = sites.get(tag);
+        if (site == null) {
+            if (sites.size() >= MAX_SITES) {
+                // 调用位置太多时不再限流新的位置
+                return null;
+            }
+            site = new Site(tag, System.nanoTime());
+            Site old = sites.putIfAbsent(tag, site);
+            if (old != null) {
+                site = old;
+            }
+        }
+        return site;
+    }
+
+    /**
+     * 清空所有调用位置的状态，未报告的计数被丢弃
+     */
+    public void reset() {
+        sites.clear();
+        pending.clear();
+    }
+}
@@ -0,0 +1,390 @@
+package com.finddreams.log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 日志保留策略，LogWriter按此切分、压缩和清理日志文件。
+ *
+ * 单个文件超过maxFileBytes时切换到下一段(dd.log、dd.1.log、dd.2.log...)，
+ * 写完的段在后台线程gzip为dd.1.log.gz。之后按日期删除maxDays天以前的日志，
+ * 总大小仍超过maxTotalBytes时从最旧的段开始删除。正在写的文件不会被删除。
+ * 压缩和清理都在单独的后台线程中进行，不占用写日志的线程。
+ */
+public class LogRetention {
+
+    public static final long DEFAULT_MAX_FILE_BYTES = 4 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_DAYS = 7;
+
+    private static final String GZ = ".gz";
+    private static final String TMP = ".tmp";
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private final long maxFileBytes;
+    private final long maxTotalBytes;
+    private final int maxDays;
+    private final boolean compress;
+
+    /**
+     * 单个文件4MB，总共64MB，保留7天，压缩写完的段
+     */
+    public LogRetention() {
+        this(DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_TOTAL_BYTES, DEFAULT_MAX_DAYS,
+                true);
+    }
+
+    /**
+     * @param maxFileBytes
+     *            单个文件的大小上限，0表示不切分
+     * @param maxTotalBytes
+     *            日志目录的总大小上限，0表示不限制
+     * @param maxDays
+     *            保留的天数(含当天)，0表示不限制
+     * @param compress
+     *            是否gzip写完的段
+     */
+    public LogRetention(long maxFileBytes, long maxTotalBytes, int maxDays,
+            boolean compress) {
+        this.maxFileBytes = maxFileBytes;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxDays = maxDays;
+        this.compress = compress;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    public int getMaxDays() {
+        return maxDays;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * 一段日志写完(切换到下一段或下一天)后调用，在后台压缩并清理
+     *
+     * @param active
+     *            刚打开的文件。任务执行时写入器可能已经切换到更新的段，
+     *            所以它以及之后的段都不会被压缩或删除
+     * @param compressClosed
+     *            是否压缩，已经压缩过的格式(BINARY_COMPRESSED)传false
+     */
+    void schedule(final String rootPath, final File active,
+            final boolean compressClosed) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    apply(rootPath, active, compressClosed && compress,
+                            System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "LogRetention");
+                            thread.setDaemon(true);
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 一个日志段：rootPath/yyyy/MM/dd[.n].log[.gz]
+     */
+    static final class Segment {
+        final File file;
+        final int day;
+        final int index;
+        final long length;
+
+        Segment(File file, int day, int index, long length) {
+            this.file = file;
+            this.day = day;
+            this.index = index;
+            this.length = length;
+        }
+
+        boolean isCompressed() {
+            return file.getName().endsWith(GZ);
+        }
+    }
+
+    /**
+     * 压缩写完的段，删除过期的和超出总大小的段。同步执行，供测试直接调用。
+     */
+    void apply(String rootPath, File active, boolean compressClosed, long now) {
+        List<Segment> segments = list(new File(rootPath));
+        // 排队期间写入器可能又切换了段，active及之后的段都可能正在写
+        Segment bound = active != null ? parse(active) : null;
+        long total = 0;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.file.equals(active)
+                    || (bound != null && !isBefore(segment, bound))) {
+                total += segment.length;
+                segments.remove(i);
+            }
+        }
+        if (compressClosed) {
+            for (int i = 0; i < segments.size(); i++) {
+                Segment segment = segments.get(i);
+                if (!segment.isCompressed()) {
+                    File gz = gzip(segment.file);
+                    if (gz != null) {
+                        segments.set(i, new Segment(gz, segment.day,
+                                segment.index, gz.length()));
+                    }
+                }
+            }
+        }
+        int oldestDay = 0;
+        if (maxDays > 0) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            calendar.add(Calendar.DAY_OF_MONTH, 1 - maxDays);
+            oldestDay = dayKey(calendar.get(Calendar.YEAR),
+                    calendar.get(Calendar.MONTH) + 1,
+                    calendar.get(Calendar.DAY_OF_MONTH));
+        }
+        for (Segment segment : segments) {
+            total += segment.length;
+        }
+        // segments按从旧到新排序
+        for (Segment segment : segments) {
+            boolean expired = segment.day < oldestDay;
+            boolean overSize = maxTotalBytes > 0 && total > maxTotalBytes;
+            if (!expired && !overSize) {
+                break;
+            }
+            if (segment.file.delete()) {
+                total -= segment.length;
+                deleteEmptyParents(segment.file.getParentFile(), rootPath);
+            }
+        }
+    }
+
+    /**
+     * 列出全部日志段，按日期和段号从旧到新排序。顺便删除上次压缩到一半留下的临时文件。
+     */
+    static List<Segment> list(File root) {
+        List<Segment> segments = new ArrayList<Segment>();
+        File[] years = root.listFiles();
+        if (years == null) {
+            return segments;
+        }
+        for (File year : years) {
+            int y = parseInt(year.getName(), 4);
+            File[] months = y < 0 ? null : year.listFiles();
+            if (months == null) {
+                continue;
+            }
+            for (File month : months) {
+                int m = parseInt(month.getName(), 2);
+                File[] files = m < 0 ? null : month.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(TMP)) {
+                        file.delete();
+                        continue;
+                    }
+                    int d = name.length() > 2 ? parseInt(name.substring(0, 2),
+                            2) : -1;
+                    if (d < 0 || name.charAt(2) != '.') {
+                        continue;
+                    }
+                    segments.add(new Segment(file, dayKey(y, m, d),
+                            segmentIndex(name), file.length()));
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                if (a.day != b.day) {
+                    return a.day < b.day ? -1 : 1;
+                }
+                return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * 从路径rootPath/yyyy/MM/dd[.n].log解析日期和段号，不是日志段时返回null
+     */
+    static Segment parse(File file) {
+        File month = file.getParentFile();
+        File year = month != null ? month.getParentFile() : null;
+        String name = file.getName();
+        if (year == null || name.length() < 3 || name.charAt(2) != '.') {
+            return null;
+        }
+        int y = parseInt(year.getName(), 4);
+        int m = parseInt(month.getName(), 2);
+        int d = parseInt(name.substring(0, 2), 2);
+        if (y < 0 || m < 0 || d < 0) {
+            return null;
+        }
+        return new Segment(file, dayKey(y, m, d), segmentIndex(name),
+                file.length());
+    }
+
+    private static boolean isBefore(Segment a, Segment b) {
+        return a.day < b.day || (a.day == b.day && a.index < b.index);
+    }
+
+    /**
+     * dd.log为0，dd.3.log为3
+     */
+    static int segmentIndex(String name) {
+        int first = name.indexOf('.');
+        int second = name.indexOf('.', first + 1);
+        if (second < 0) {
+            return 0;
+        }
+        int index = parseInt(name.substring(first + 1, second), -1);
+        return index < 0 ? 0 : index;
+    }
+
+    /**
+     * 同一天的下一个段号，当天还没有文件时返回0。
+     * 最后一段未压缩且未满时返回它的段号，继续追加；append为false时只复用空文件。
+     *
+     * @param append
+     *            能否在已有内容后追加。二进制日志不能：进程被杀时末尾可能留下
+     *            写了一半的块，解码器会把后面追加的会话头当成这个块的内容
+     */
+    int nextSegment(File dayDir, String day, boolean append) {
+        File[] files = dayDir.listFiles();
+        int last = -1;
+        File lastFile = null;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(day + ".") && !name.endsWith(TMP)) {
+                    int index = segmentIndex(name);
+                    if (index > last || (index == last && name.endsWith(GZ))) {
+                        last = index;
+                        lastFile = file;
+                    }
+                }
+            }
+        }
+        if (last < 0) {
+            return 0;
+        }
+        if (lastFile.getName().endsWith(GZ)) {
+            return last + 1;
+        }
+        long length = lastFile.length();
+        if (length == 0
+                || (append && (maxFileBytes <= 0 || length < maxFileBytes))) {
+            return last;
+        }
+        return last + 1;
+    }
+
+    private static File gzip(File file) {
+        File gz = new File(file.getPath() + GZ);
+        File tmp = new File(gz.getPath() + TMP);
+        byte[] buffer = new byte[16 * 1024];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(
+                        tmp));
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (!tmp.renameTo(gz)) {
+                throw new IOException("rename failed: " + gz);
+            }
+            file.delete();
+            return gz;
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return null;
+        }
+    }
+
+    private static void deleteEmptyParents(File dir, String rootPath) {
+        File root = new File(rootPath);
+        while (dir != null && !dir.equals(root)) {
+            String[] names = dir.list();
+            if (names == null || names.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
+    private static int dayKey(int year, int month, int day) {
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * 解析非负整数，length大于0时要求正好是该长度，不是数字时返回-1
+     */
+    private static int parseInt(String s, int length) {
+        if (s.length() == 0 || (length > 0 && s.length() != length)) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
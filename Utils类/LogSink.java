@@ -0,0 +1,22 @@
+package com.finddreams.log;
+
+/**
+ * LogUtils.point()写入的日志输出，实现有LogWriter和MappedLogWriter。
+ */
+public interface LogSink {
+
+    /**
+     * 写入一条日志，不能阻塞调用线程做IO
+     *
+     * @return 日志被丢弃时返回false
+     */
+    boolean write(String tag, String msg);
+
+    /**
+     * 写完剩余的日志并关闭
+     *
+     * @param timeoutMs
+     *            最长等待时间，0表示不等待
+     */
+    void shutdown(long timeoutMs);
+}
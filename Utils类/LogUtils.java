@@ -1,14 +1,13 @@
 package com.finddreams.log;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
 import java.util.Formatter;
-import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.os.Environment;
 import android.text.TextUtils;
@@ -18,6 +17,11 @@ import android.util.Log;
  * Log工具，类似android.util.Log。 tag自动产生，格式:
  * customTagPrefix:className.methodName(Line:lineNumber),
  * customTagPrefix为空时只输出：className.methodName(Line:lineNumber)。
+ *
+ * 自动tag每次调用都要找到调用位置：Android上用new Throwable().getStackTrace()，
+ * JVM(如本地单元测试)上有StackWalker时只遍历到调用者所在的栈帧；
+ * 按调用位置缓存的只是拼接好的tag字符串。循环等高频调用的地方应当用
+ * LogUtils.tag(Class)或LogUtils.tag(String)得到的TagLogger，不解析调用栈。
  * http://blog.csdn.net/finddreams
  */
 public class LogUtils {
@@ -27,6 +31,11 @@ public class LogUtils {
     public static final String ROOT = Environment.getExternalStorageDirectory()
             .getPath() + "/finddreams/"; // SD卡中的根目录
     private static final String PATH_LOG_INFO = ROOT + "info/";
+    private static final String PATH_LOG_FLIGHT = ROOT + "flight/";
+
+    // 最近日志的内存环形缓冲区，wtf()时写到PATH_LOG_FLIGHT
+    private static final FlightRecorder flightRecorder = new FlightRecorder(
+            new File(PATH_LOG_FLIGHT));
 
     private LogUtils() {
     }
@@ -39,15 +48,109 @@ public class LogUtils {
     public static boolean allowW = true;
     public static boolean allowWtf = true;
 
-    private static String generateTag(StackTraceElement caller) {
-        String tag = "%s.%s(Line:%d)"; // 占位符
+    // 按tag、类名、包名设置的级别阈值，与上面的开关同时生效
+    private static volatile LogLevelFilter levelFilter = LogLevelFilter.ALL;
+
+    /**
+     * 替换级别过滤规则，立即对所有线程生效
+     * 
+     * @param filter
+     *            为null时恢复为全部放行
+     */
+    public static void setLevelFilter(LogLevelFilter filter) {
+        levelFilter = filter != null ? filter : LogLevelFilter.ALL;
+    }
+
+    public static LogLevelFilter getLevelFilter() {
+        return levelFilter;
+    }
+
+    // 按调用位置限流，默认不开启
+    private static volatile LogRateLimiter rateLimiter;
+
+    /**
+     * 开启按调用位置的限流和重复内容合并
+     * 
+     * @param limiter
+     *            为null时关闭
+     */
+    public static void setRateLimiter(LogRateLimiter limiter) {
+        rateLimiter = limiter;
+    }
+
+    public static LogRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+    // 是否把日志记入FlightRecorder。记录在上面的开关、级别过滤和限流之前，
+    // 没有打印的日志也会记录，每次调用分配一个Record；关闭后未开启的级别不分配内存
+    public static boolean allowFlightRecorder = true;
+
+    private static String generateTag(StackTraceElement caller, String prefix) {
         String callerClazzName = caller.getClassName(); // 获取到类名
         callerClazzName = callerClazzName.substring(callerClazzName
                 .lastIndexOf(".") + 1);
-        tag = String.format(tag, callerClazzName, caller.getMethodName(),
-                caller.getLineNumber()); // 替换
-        tag = TextUtils.isEmpty(customTagPrefix) ? tag : customTagPrefix + ":"
-                + tag;
+        StringBuilder tag = new StringBuilder(64);
+        if (!TextUtils.isEmpty(prefix)) {
+            tag.append(prefix).append(':');
+        }
+        tag.append(callerClazzName).append('.').append(caller.getMethodName())
+                .append("(Line:").append(caller.getLineNumber()).append(')');
+        return tag.toString();
+    }
+
+    /**
+     * 调用位置到tag的缓存，同一行代码只拼接一次tag，调用栈仍然每次都要解析。
+     * customTagPrefix改变时整体替换。
+     */
+    private static final class TagCache {
+        final String prefix;
+        final ConcurrentHashMap<StackTraceElement, String> tags = new ConcurrentHashMap<StackTraceElement, String>();
+
+        TagCache(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private static final int MAX_CACHED_TAGS = 1024;
+    private static volatile TagCache tagCache = new TagCache(customTagPrefix);
+
+    /**
+     * 调用位置的tag，按levelFilter该级别不打印时返回null。
+     * 低于类名规则最低阈值的级别在解析调用栈之前就返回；某个类、包的规则把阈值
+     * 降到默认值以下时，其他类在该级别的自动tag日志也要先解析调用栈才能知道
+     * 调用类，这些类应当用tag(Class)。
+     */
+    private static String callerTag(int level) {
+        LogLevelFilter filter = levelFilter;
+        if (level < filter.getMinClassLevel()) {
+            return null;
+        }
+        StackTraceElement caller = getCallerStackTraceElement();
+        if (level < filter.levelForClass(caller.getClassName())) {
+            return null;
+        }
+        String tag = tagFor(caller);
+        LogRateLimiter limiter = rateLimiter;
+        if (limiter != null && !limiter.acquire(level, tag)) {
+            return null;
+        }
+        return tag;
+    }
+
+    private static String tagFor(StackTraceElement caller) {
+        TagCache cache = tagCache;
+        String prefix = customTagPrefix;
+        if (cache.prefix != prefix) {
+            cache = new TagCache(prefix);
+            tagCache = cache;
+        }
+        String tag = cache.tags.get(caller);
+        if (tag == null) {
+            tag = generateTag(caller, prefix);
+            if (cache.tags.size() < MAX_CACHED_TAGS) {
+                cache.tags.put(caller, tag);
+            }
+        }
         return tag;
     }
 
@@ -87,234 +190,1046 @@ public class LogUtils {
     }
 
     public static void d(String content) {
+        FlightRecorder.Record record = record(Log.DEBUG, null, content, null);
         if (!allowD)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
-
-        if (customLogger != null) {
-            customLogger.d(tag, content);
-        } else {
-            Log.d(tag, content);
-        }
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        print(record, Log.DEBUG, tag, content, null);
     }
 
     public static void d(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.DEBUG, null, content, tr);
         if (!allowD)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
-
-        if (customLogger != null) {
-            customLogger.d(tag, content, tr);
-        } else {
-            Log.d(tag, content, tr);
-        }
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        print(record, Log.DEBUG, tag, content, tr);
     }
 
     public static void e(String content) {
+        FlightRecorder.Record record = record(Log.ERROR, null, content, null);
         if (!allowE)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
-
-        if (customLogger != null) {
-            customLogger.e(tag, content);
-        } else {
-            Log.e(tag, content);
-        }
-        if (isSaveLog) {
-            point(PATH_LOG_INFO, tag, content);
-        }
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        print(record, Log.ERROR, tag, content, null);
     }
 
     public static void e(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.ERROR, null, content, tr);
         if (!allowE)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
-
-        if (customLogger != null) {
-            customLogger.e(tag, content, tr);
-        } else {
-            Log.e(tag, content, tr);
-        }
-        if (isSaveLog) {
-            point(PATH_LOG_INFO, tag, tr.getMessage());
-        }
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        print(record, Log.ERROR, tag, content, tr);
     }
 
     public static void i(String content) {
+        FlightRecorder.Record record = record(Log.INFO, null, content, null);
         if (!allowI)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        print(record, Log.INFO, tag, content, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.i(tag, content);
-        } else {
-            Log.i(tag, content);
-        }
+    public static void i(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.INFO, null, content, tr);
+        if (!allowI)
+            return;
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        print(record, Log.INFO, tag, content, tr);
+    }
 
+    public static void v(String content) {
+        FlightRecorder.Record record = record(Log.VERBOSE, null, content, null);
+        if (!allowV)
+            return;
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        print(record, Log.VERBOSE, tag, content, null);
     }
 
-    public static void i(String content, Throwable tr) {
+    public static void v(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.VERBOSE, null, content, tr);
+        if (!allowV)
+            return;
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        print(record, Log.VERBOSE, tag, content, tr);
+    }
+
+    public static void w(String content) {
+        FlightRecorder.Record record = record(Log.WARN, null, content, null);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        print(record, Log.WARN, tag, content, null);
+    }
+
+    public static void w(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.WARN, null, content, tr);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        print(record, Log.WARN, tag, content, tr);
+    }
+
+    public static void w(Throwable tr) {
+        FlightRecorder.Record record = record(Log.WARN, null, null, tr);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        print(record, Log.WARN, tag, null, tr);
+    }
+
+    public static void wtf(String content) {
+        FlightRecorder.Record record = record(Log.ASSERT, null, content, null);
+        if (!allowWtf)
+            return;
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        print(record, Log.ASSERT, tag, content, null);
+    }
+
+    public static void wtf(String content, Throwable tr) {
+        FlightRecorder.Record record = record(Log.ASSERT, null, content, tr);
+        if (!allowWtf)
+            return;
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        print(record, Log.ASSERT, tag, content, tr);
+    }
+
+    public static void wtf(Throwable tr) {
+        FlightRecorder.Record record = record(Log.ASSERT, null, null, tr);
+        if (!allowWtf)
+            return;
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        print(record, Log.ASSERT, tag, null, tr);
+    }
+
+    /**
+     * 延迟生成的日志内容，只有该级别允许打印时，或者FlightRecorder dump时才会调用get()，
+     * 后者在dump线程上调用。
+     * 对应的方法名为dLazy()等，与d(String)同名会让d(null)无法编译。
+     */
+    public interface MessageSupplier {
+        String get();
+    }
+
+    /*
+     * 带参数的日志，format中的"{}"依次替换为参数，"\{}"输出"{}"。最后一个参数是
+     * Throwable并且没有对应的"{}"时作为异常打印。级别未开启时只把模板和参数记入
+     * FlightRecorder，不做格式化也不创建数组；传入基本类型时的装箱发生在调用方。
+     */
+    public static void d(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.DEBUG, format,
+                1, arg1, null, null, null);
+        if (!allowD)
+            return;
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.DEBUG, tag, format, 1,
+                arg1, null, null, null);
+    }
+
+    public static void d(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.DEBUG, format,
+                2, arg1, arg2, null, null);
+        if (!allowD)
+            return;
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.DEBUG, tag, format, 2,
+                arg1, arg2, null, null);
+    }
+
+    public static void d(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.DEBUG, format,
+                3, arg1, arg2, arg3, null);
+        if (!allowD)
+            return;
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.DEBUG, tag, format, 3,
+                arg1, arg2, arg3, null);
+    }
+
+    public static void d(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.DEBUG, format,
+                4, arg1, arg2, arg3, arg4);
+        if (!allowD)
+            return;
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.DEBUG, tag, format, 4,
+                arg1, arg2, arg3, arg4);
+    }
+
+    public static void dLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.DEBUG, supplier);
+        if (!allowD)
+            return;
+        String tag = callerTag(Log.DEBUG);
+        if (tag == null)
+            return;
+        print(record, Log.DEBUG, tag, supplier.get(), null);
+    }
+
+    public static void e(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.ERROR, format,
+                1, arg1, null, null, null);
+        if (!allowE)
+            return;
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ERROR, tag, format, 1,
+                arg1, null, null, null);
+    }
+
+    public static void e(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.ERROR, format,
+                2, arg1, arg2, null, null);
+        if (!allowE)
+            return;
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ERROR, tag, format, 2,
+                arg1, arg2, null, null);
+    }
+
+    public static void e(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.ERROR, format,
+                3, arg1, arg2, arg3, null);
+        if (!allowE)
+            return;
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ERROR, tag, format, 3,
+                arg1, arg2, arg3, null);
+    }
+
+    public static void e(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.ERROR, format,
+                4, arg1, arg2, arg3, arg4);
+        if (!allowE)
+            return;
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ERROR, tag, format, 4,
+                arg1, arg2, arg3, arg4);
+    }
+
+    public static void eLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.ERROR, supplier);
+        if (!allowE)
+            return;
+        String tag = callerTag(Log.ERROR);
+        if (tag == null)
+            return;
+        print(record, Log.ERROR, tag, supplier.get(), null);
+    }
+
+    public static void i(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.INFO, format,
+                1, arg1, null, null, null);
         if (!allowI)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.INFO, tag, format, 1,
+                arg1, null, null, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.i(tag, content, tr);
-        } else {
-            Log.i(tag, content, tr);
-        }
+    public static void i(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.INFO, format,
+                2, arg1, arg2, null, null);
+        if (!allowI)
+            return;
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.INFO, tag, format, 2,
+                arg1, arg2, null, null);
+    }
+
+    public static void i(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.INFO, format,
+                3, arg1, arg2, arg3, null);
+        if (!allowI)
+            return;
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.INFO, tag, format, 3,
+                arg1, arg2, arg3, null);
+    }
 
+    public static void i(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.INFO, format,
+                4, arg1, arg2, arg3, arg4);
+        if (!allowI)
+            return;
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.INFO, tag, format, 4,
+                arg1, arg2, arg3, arg4);
     }
 
-    public static void v(String content) {
+    public static void iLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.INFO, supplier);
+        if (!allowI)
+            return;
+        String tag = callerTag(Log.INFO);
+        if (tag == null)
+            return;
+        print(record, Log.INFO, tag, supplier.get(), null);
+    }
+
+    public static void v(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.VERBOSE, format,
+                1, arg1, null, null, null);
         if (!allowV)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.VERBOSE, tag, format, 1,
+                arg1, null, null, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.v(tag, content);
-        } else {
-            Log.v(tag, content);
-        }
+    public static void v(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.VERBOSE, format,
+                2, arg1, arg2, null, null);
+        if (!allowV)
+            return;
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.VERBOSE, tag, format, 2,
+                arg1, arg2, null, null);
     }
 
-    public static void v(String content, Throwable tr) {
+    public static void v(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.VERBOSE, format,
+                3, arg1, arg2, arg3, null);
         if (!allowV)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.VERBOSE, tag, format, 3,
+                arg1, arg2, arg3, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.v(tag, content, tr);
-        } else {
-            Log.v(tag, content, tr);
-        }
+    public static void v(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.VERBOSE, format,
+                4, arg1, arg2, arg3, arg4);
+        if (!allowV)
+            return;
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.VERBOSE, tag, format, 4,
+                arg1, arg2, arg3, arg4);
     }
 
-    public static void w(String content) {
-        if (!allowW)
+    public static void vLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.VERBOSE, supplier);
+        if (!allowV)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.VERBOSE);
+        if (tag == null)
+            return;
+        print(record, Log.VERBOSE, tag, supplier.get(), null);
+    }
 
-        if (customLogger != null) {
-            customLogger.w(tag, content);
-        } else {
-            Log.w(tag, content);
-        }
+    public static void w(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.WARN, format,
+                1, arg1, null, null, null);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.WARN, tag, format, 1,
+                arg1, null, null, null);
     }
 
-    public static void w(String content, Throwable tr) {
+    public static void w(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.WARN, format,
+                2, arg1, arg2, null, null);
         if (!allowW)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.WARN, tag, format, 2,
+                arg1, arg2, null, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.w(tag, content, tr);
-        } else {
-            Log.w(tag, content, tr);
-        }
+    public static void w(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.WARN, format,
+                3, arg1, arg2, arg3, null);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.WARN, tag, format, 3,
+                arg1, arg2, arg3, null);
     }
 
-    public static void w(Throwable tr) {
+    public static void w(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.WARN, format,
+                4, arg1, arg2, arg3, arg4);
         if (!allowW)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.WARN, tag, format, 4,
+                arg1, arg2, arg3, arg4);
+    }
 
-        if (customLogger != null) {
-            customLogger.w(tag, tr);
-        } else {
-            Log.w(tag, tr);
-        }
+    public static void wLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.WARN, supplier);
+        if (!allowW)
+            return;
+        String tag = callerTag(Log.WARN);
+        if (tag == null)
+            return;
+        print(record, Log.WARN, tag, supplier.get(), null);
     }
 
-    public static void wtf(String content) {
+    public static void wtf(String format, Object arg1) {
+        FlightRecorder.Record record = recordFormat(Log.ASSERT, format,
+                1, arg1, null, null, null);
         if (!allowWtf)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ASSERT, tag, format, 1,
+                arg1, null, null, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.wtf(tag, content);
-        } else {
-            Log.wtf(tag, content);
-        }
+    public static void wtf(String format, Object arg1, Object arg2) {
+        FlightRecorder.Record record = recordFormat(Log.ASSERT, format,
+                2, arg1, arg2, null, null);
+        if (!allowWtf)
+            return;
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ASSERT, tag, format, 2,
+                arg1, arg2, null, null);
     }
 
-    public static void wtf(String content, Throwable tr) {
+    public static void wtf(String format, Object arg1, Object arg2,
+            Object arg3) {
+        FlightRecorder.Record record = recordFormat(Log.ASSERT, format,
+                3, arg1, arg2, arg3, null);
         if (!allowWtf)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ASSERT, tag, format, 3,
+                arg1, arg2, arg3, null);
+    }
 
-        if (customLogger != null) {
-            customLogger.wtf(tag, content, tr);
-        } else {
-            Log.wtf(tag, content, tr);
-        }
+    public static void wtf(String format, Object arg1, Object arg2,
+            Object arg3, Object arg4) {
+        FlightRecorder.Record record = recordFormat(Log.ASSERT, format,
+                4, arg1, arg2, arg3, arg4);
+        if (!allowWtf)
+            return;
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        printFormatted(record, Log.ASSERT, tag, format, 4,
+                arg1, arg2, arg3, arg4);
     }
 
-    public static void wtf(Throwable tr) {
+    public static void wtfLazy(MessageSupplier supplier) {
+        FlightRecorder.Record record = recordLazy(Log.ASSERT, supplier);
         if (!allowWtf)
             return;
-        StackTraceElement caller = getCallerStackTraceElement();
-        String tag = generateTag(caller);
+        String tag = callerTag(Log.ASSERT);
+        if (tag == null)
+            return;
+        print(record, Log.ASSERT, tag, supplier.get(), null);
+    }
 
-        if (customLogger != null) {
-            customLogger.wtf(tag, tr);
-        } else {
-            Log.wtf(tag, tr);
+    /**
+     * 使用固定tag打印日志，不解析调用栈，是高频调用处代替自动tag的写法，例如:
+     * private static final LogUtils.TagLogger LOG = LogUtils.tag("Upload");
+     * 开启LogRateLimiter时限流按tag而不是调用位置：同一个TagLogger的所有调用共用
+     * 一个令牌桶和重复合并状态，内容无关的日志也会互相限流，需要分开限流时用不同的tag。
+     */
+    public static TagLogger tag(String tag) {
+        return new TagLogger(tag, null);
+    }
+
+    /**
+     * 以类名(不含包名)为tag，级别按该类的类名、包名规则过滤
+     */
+    public static TagLogger tag(Class<?> clazz) {
+        return new TagLogger(clazz.getSimpleName(), clazz.getName());
+    }
+
+    public static final class TagLogger {
+
+        private final String tag;
+        private final String className;
+        // 按当前levelFilter解析出的阈值，过滤规则被替换后重新解析
+        private Threshold threshold;
+
+        private TagLogger(String tag, String className) {
+            this.tag = tag;
+            this.className = className;
+            LogLevelFilter filter = levelFilter;
+            threshold = new Threshold(filter, filter.levelFor(tag, className));
+        }
+
+        /**
+         * 一次volatile读加一次引用比较，不查表也不解析调用栈
+         */
+        public boolean isLoggable(int level) {
+            LogLevelFilter filter = levelFilter;
+            Threshold current = threshold;
+            if (current.filter != filter) {
+                current = new Threshold(filter, filter.levelFor(tag,
+                        className));
+                threshold = current;
+            }
+            return level >= current.level;
+        }
+
+        /**
+         * 级别允许并且没有超出限流速率
+         */
+        private boolean admit(int level) {
+            if (!isLoggable(level)) {
+                return false;
+            }
+            LogRateLimiter limiter = rateLimiter;
+            return limiter == null || limiter.acquire(level, tag);
+        }
+
+        public void d(String content) {
+            record(Log.DEBUG, tag, content, null);
+            if (allowD && admit(Log.DEBUG))
+                print(null, Log.DEBUG, tag, content, null);
+        }
+
+        public void d(String content, Throwable tr) {
+            record(Log.DEBUG, tag, content, tr);
+            if (allowD && admit(Log.DEBUG))
+                print(null, Log.DEBUG, tag, content, tr);
+        }
+
+        public void e(String content) {
+            record(Log.ERROR, tag, content, null);
+            if (allowE && admit(Log.ERROR))
+                print(null, Log.ERROR, tag, content, null);
+        }
+
+        public void e(String content, Throwable tr) {
+            record(Log.ERROR, tag, content, tr);
+            if (allowE && admit(Log.ERROR))
+                print(null, Log.ERROR, tag, content, tr);
+        }
+
+        public void i(String content) {
+            record(Log.INFO, tag, content, null);
+            if (allowI && admit(Log.INFO))
+                print(null, Log.INFO, tag, content, null);
+        }
+
+        public void i(String content, Throwable tr) {
+            record(Log.INFO, tag, content, tr);
+            if (allowI && admit(Log.INFO))
+                print(null, Log.INFO, tag, content, tr);
+        }
+
+        public void v(String content) {
+            record(Log.VERBOSE, tag, content, null);
+            if (allowV && admit(Log.VERBOSE))
+                print(null, Log.VERBOSE, tag, content, null);
+        }
+
+        public void v(String content, Throwable tr) {
+            record(Log.VERBOSE, tag, content, tr);
+            if (allowV && admit(Log.VERBOSE))
+                print(null, Log.VERBOSE, tag, content, tr);
+        }
+
+        public void w(String content) {
+            record(Log.WARN, tag, content, null);
+            if (allowW && admit(Log.WARN))
+                print(null, Log.WARN, tag, content, null);
+        }
+
+        public void w(String content, Throwable tr) {
+            record(Log.WARN, tag, content, tr);
+            if (allowW && admit(Log.WARN))
+                print(null, Log.WARN, tag, content, tr);
+        }
+
+        public void w(Throwable tr) {
+            record(Log.WARN, tag, null, tr);
+            if (allowW && admit(Log.WARN))
+                print(null, Log.WARN, tag, null, tr);
+        }
+
+        public void wtf(String content) {
+            record(Log.ASSERT, tag, content, null);
+            if (allowWtf && admit(Log.ASSERT))
+                print(null, Log.ASSERT, tag, content, null);
+        }
+
+        public void wtf(String content, Throwable tr) {
+            record(Log.ASSERT, tag, content, tr);
+            if (allowWtf && admit(Log.ASSERT))
+                print(null, Log.ASSERT, tag, content, tr);
+        }
+
+        public void wtf(Throwable tr) {
+            record(Log.ASSERT, tag, null, tr);
+            if (allowWtf && admit(Log.ASSERT))
+                print(null, Log.ASSERT, tag, null, tr);
+        }
+    }
+
+    /**
+     * TagLogger解析出的阈值及对应的过滤规则，字段为final，不加锁发布
+     */
+    private static final class Threshold {
+        final LogLevelFilter filter;
+        final int level;
+
+        Threshold(LogLevelFilter filter, int level) {
+            this.filter = filter;
+            this.level = level;
+        }
+    }
+
+    private static final LogRateLimiter.Reporter REPEATS_REPORTER = new LogRateLimiter.Reporter() {
+        @Override
+        public void report(int level, String tag, int suppressed,
+                int repeats) {
+            if (suppressed > 0) {
+                dispatch(level, tag, "(suppressed " + suppressed
+                        + " messages)", null);
+            }
+            if (repeats > 0) {
+                dispatch(level, tag, "(last message repeated " + repeats
+                        + " times)", null);
+            }
+        }
+    };
+
+    /*
+     * 在级别开关、过滤规则和限流之前记入FlightRecorder。自动tag的日志这时还没有解析
+     * 调用栈，tag为null，通过检查后由print()补上。
+     */
+    private static FlightRecorder.Record record(int level, String tag,
+            String content, Throwable tr) {
+        return allowFlightRecorder ? flightRecorder.record(level, tag,
+                content, tr) : null;
+    }
+
+    private static FlightRecorder.Record recordLazy(int level,
+            MessageSupplier supplier) {
+        return allowFlightRecorder ? flightRecorder.record(level, null,
+                supplier) : null;
+    }
+
+    private static FlightRecorder.Record recordFormat(int level,
+            String format, int count, Object arg1, Object arg2, Object arg3,
+            Object arg4) {
+        return allowFlightRecorder ? flightRecorder.record(level, null,
+                format, count, arg1, arg2, arg3, arg4) : null;
+    }
+
+    /**
+     * 开启限流时先补上被丢弃、被合并的条数(包括其他位置窗口已结束的)，窗口内重复的内容不再打印
+     * 
+     * @param record
+     *            record()返回的记录，tag未知时在这里补上，可以为null
+     */
+    private static void print(FlightRecorder.Record record, int level,
+            String tag, String content, Throwable tr) {
+        if (record != null) {
+            record.tag = tag;
+        }
+        LogRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            limiter.flushExpired(REPEATS_REPORTER);
+            int repeats = limiter.collapse(level, tag, content);
+            if (repeats < 0) {
+                return;
+            }
+            int suppressed = limiter.takeSuppressed(tag);
+            if (suppressed > 0) {
+                dispatch(level, tag, "(suppressed " + suppressed
+                        + " messages)", null);
+            }
+            if (repeats > 0) {
+                dispatch(level, tag, "(last message repeated " + repeats
+                        + " times)", null);
+            }
+        }
+        dispatch(level, tag, content, tr);
+    }
+
+    /**
+     * 分发到customLogger或android.util.Log。content为null时表示只有异常的w/wtf调用。
+     */
+    private static void dispatch(int level, String tag, String content,
+            Throwable tr) {
+        CustomLogger logger = customLogger;
+        switch (level) {
+        case Log.VERBOSE:
+            if (logger != null) {
+                if (tr == null)
+                    logger.v(tag, content);
+                else
+                    logger.v(tag, content, tr);
+            } else if (tr == null) {
+                Log.v(tag, content);
+            } else {
+                Log.v(tag, content, tr);
+            }
+            break;
+        case Log.DEBUG:
+            if (logger != null) {
+                if (tr == null)
+                    logger.d(tag, content);
+                else
+                    logger.d(tag, content, tr);
+            } else if (tr == null) {
+                Log.d(tag, content);
+            } else {
+                Log.d(tag, content, tr);
+            }
+            break;
+        case Log.INFO:
+            if (logger != null) {
+                if (tr == null)
+                    logger.i(tag, content);
+                else
+                    logger.i(tag, content, tr);
+            } else if (tr == null) {
+                Log.i(tag, content);
+            } else {
+                Log.i(tag, content, tr);
+            }
+            break;
+        case Log.WARN:
+            if (logger != null) {
+                if (tr == null)
+                    logger.w(tag, content);
+                else if (content == null)
+                    logger.w(tag, tr);
+                else
+                    logger.w(tag, content, tr);
+            } else if (tr == null) {
+                Log.w(tag, content);
+            } else if (content == null) {
+                Log.w(tag, tr);
+            } else {
+                Log.w(tag, content, tr);
+            }
+            break;
+        case Log.ERROR:
+            if (logger != null) {
+                if (tr == null)
+                    logger.e(tag, content);
+                else
+                    logger.e(tag, content, tr);
+            } else if (tr == null) {
+                Log.e(tag, content);
+            } else {
+                Log.e(tag, content, tr);
+            }
+            if (isSaveLog) {
+                point(PATH_LOG_INFO, tag, tr == null ? content : tr.getMessage());
+            }
+            break;
+        case Log.ASSERT:
+            if (logger != null) {
+                if (tr == null)
+                    logger.wtf(tag, content);
+                else if (content == null)
+                    logger.wtf(tag, tr);
+                else
+                    logger.wtf(tag, content, tr);
+            } else if (tr == null) {
+                Log.wtf(tag, content);
+            } else if (content == null) {
+                Log.wtf(tag, tr);
+            } else {
+                Log.wtf(tag, content, tr);
+            }
+            if (allowFlightRecorder) {
+                flightRecorder.dumpAsync("wtf: " + tag);
+            }
+            break;
         }
     }
 
+    /**
+     * 最近日志的环形缓冲区，可以调用dump()或snapshot()查看
+     */
+    public static FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     * 进程崩溃时把FlightRecorder中的日志写到文件，在Application.onCreate()中调用
+     */
+    public static void installCrashHandler() {
+        flightRecorder.installCrashHandler();
+    }
+
+    /**
+     * 取第一个不属于LogUtils的栈帧。有StackWalker时只遍历到该栈帧；否则用
+     * new Throwable()，它比Thread.getStackTrace()少一次线程检查和数组拷贝，
+     * 并且不依赖固定的栈深度，但仍然要生成整个调用栈，是自动tag日志的主要开销
+     * (见LogUtilsBenchmark)。
+     */
     private static StackTraceElement getCallerStackTraceElement() {
-        return Thread.currentThread().getStackTrace()[4];
+        CallerWalker walker = CALLER_WALKER;
+        if (walker != null) {
+            StackTraceElement caller = walker.find();
+            if (caller != null) {
+                return caller;
+            }
+        }
+        StackTraceElement[] trace = new Throwable().getStackTrace();
+        for (StackTraceElement element : trace) {
+            if (!isLogUtilsFrame(element.getClassName())) {
+                return element;
+            }
+        }
+        return trace[trace.length - 1];
     }
 
-    public static void point(String path, String tag, String msg) {
-        if (isSDAva()) {
-            Date date = new Date();
-            SimpleDateFormat dateFormat = new SimpleDateFormat("",
-                    Locale.SIMPLIFIED_CHINESE);
-            dateFormat.applyPattern("yyyy");
-            path = path + dateFormat.format(date) + "/";
-            dateFormat.applyPattern("MM");
-            path += dateFormat.format(date) + "/";
-            dateFormat.applyPattern("dd");
-            path += dateFormat.format(date) + ".log";
-            dateFormat.applyPattern("[yyyy-MM-dd HH:mm:ss]");
-            String time = dateFormat.format(date);
-            File file = new File(path);
-            if (!file.exists())
-                createDipPath(path);
-            BufferedWriter out = null;
+    private static final String CLASS_NAME = LogUtils.class.getName();
+    private static final String INNER_CLASS_PREFIX = CLASS_NAME + "$";
+
+    private static boolean isLogUtilsFrame(String className) {
+        return className.equals(CLASS_NAME)
+                || className.startsWith(INNER_CLASS_PREFIX);
+    }
+
+    private static final CallerWalker CALLER_WALKER = CallerWalker.create();
+
+    /**
+     * 通过反射使用Java 9的StackWalker，只遍历到第一个不属于LogUtils的栈帧。
+     * java.util.function.Function用动态代理实现，源码仍然兼容Java 7；
+     * Android没有StackWalker，create()返回null。
+     */
+    private static final class CallerWalker implements InvocationHandler {
+        private final Object walker;
+        private final Method walk;
+        private final Object function;
+        private final Method iterator;
+        private final Method getClassName;
+        private final Method toStackTraceElement;
+
+        private CallerWalker(Object walker, Method walk, Class<?> functionClass,
+                Method iterator, Method getClassName,
+                Method toStackTraceElement) {
+            this.walker = walker;
+            this.walk = walk;
+            this.iterator = iterator;
+            this.getClassName = getClassName;
+            this.toStackTraceElement = toStackTraceElement;
+            function = Proxy.newProxyInstance(functionClass.getClassLoader(),
+                    new Class<?>[] { functionClass }, this);
+        }
+
+        static CallerWalker create() {
+            try {
+                Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+                Class<?> functionClass = Class
+                        .forName("java.util.function.Function");
+                Class<?> frameClass = Class
+                        .forName("java.lang.StackWalker$StackFrame");
+                Class<?> streamClass = Class
+                        .forName("java.util.stream.BaseStream");
+                CallerWalker walker = new CallerWalker(walkerClass.getMethod(
+                        "getInstance").invoke(null), walkerClass.getMethod(
+                        "walk", functionClass), functionClass,
+                        streamClass.getMethod("iterator"),
+                        frameClass.getMethod("getClassName"),
+                        frameClass.getMethod("toStackTraceElement"));
+                // 试用一次，不可用时退回Throwable
+                return walker.find() != null ? walker : null;
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        StackTraceElement find() {
             try {
-                out = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(file, true)));
-                out.write(time + " " + tag + " " + msg + "\r\n");
+                return (StackTraceElement) walk.invoke(walker, function);
             } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    if (out != null) {
-                        out.close();
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
+                return null;
+            }
+        }
+
+        /**
+         * Function.apply(Stream<StackFrame>)
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            if (!method.getName().equals("apply")) {
+                // Object的方法
+                return method.getName().equals("hashCode") ? System
+                        .identityHashCode(proxy) : method.getName().equals(
+                        "equals") ? proxy == args[0] : "CallerWalker";
+            }
+            Iterator<?> frames = (Iterator<?>) iterator.invoke(args[0]);
+            while (frames.hasNext()) {
+                Object frame = frames.next();
+                if (!isLogUtilsFrame((String) getClassName.invoke(frame))) {
+                    return toStackTraceElement.invoke(frame);
                 }
             }
+            return null;
         }
     }
 
+    /**
+     * 把日志交给该目录对应的写入器，调用线程不做任何IO。
+     */
+    public static void point(String path, String tag, String msg) {
+        getLogSink(path).write(tag, msg);
+    }
+
+    private static final ConcurrentHashMap<String, LogSink> logSinks = new ConcurrentHashMap<String, LogSink>();
+
+    /**
+     * 获取日志目录对应的写入器，不存在时按默认配置创建LogWriter。
+     */
+    public static LogSink getLogSink(String path) {
+        LogSink sink = logSinks.get(path);
+        if (sink == null) {
+            LogWriter writer = new LogWriter(path);
+            sink = logSinks.putIfAbsent(path, writer);
+            if (sink != null) {
+                writer.shutdown(0);
+            } else {
+                sink = writer;
+                installShutdownHook();
+            }
+        }
+        return sink;
+    }
+
+    /**
+     * 获取日志目录对应的LogWriter，不存在时按默认配置创建。
+     *
+     * @throws IllegalStateException
+     *             该目录已经用setLogSink()指定了其他写入器，如MappedLogWriter
+     */
+    public static LogWriter getLogWriter(String path) {
+        LogSink sink = getLogSink(path);
+        if (!(sink instanceof LogWriter)) {
+            throw new IllegalStateException(path + " is written by "
+                    + sink.getClass().getSimpleName());
+        }
+        return (LogWriter) sink;
+    }
+
+    /**
+     * 为日志目录指定自定义配置的写入器(缓冲区大小、满时策略、刷盘策略)，
+     * 原有写入器会被关闭。
+     */
+    public static void setLogWriter(String path, LogWriter writer) {
+        setLogSink(path, writer);
+    }
+
+    /**
+     * 为日志目录指定写入器，如new MappedLogWriter(path)，原有写入器会被关闭。
+     */
+    public static void setLogSink(String path, LogSink sink) {
+        LogSink old = logSinks.put(path, sink);
+        installShutdownHook();
+        if (old != null) {
+            old.shutdown(SHUTDOWN_TIMEOUT_MS);
+        }
+    }
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private static boolean shutdownHookInstalled;
+
+    /**
+     * 只注册一个退出钩子，退出时关闭当时logSinks中的写入器；被替换的写入器已经关闭，不再持有
+     */
+    private static synchronized void installShutdownHook() {
+        if (shutdownHookInstalled) {
+            return;
+        }
+        shutdownHookInstalled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                for (LogSink sink : logSinks.values()) {
+                    sink.shutdown(SHUTDOWN_TIMEOUT_MS);
+                }
+            }
+        });
+    }
+
     /**
      * 根据文件路径 递归创建文件
      * 
@@ -361,6 +1276,111 @@ public class LogUtils {
         }
     };
 
+    private static final int MAX_REUSED_BUILDER = 4096;
+
+    private static final ThreadLocal<StringBuilder> thread_local_builder = new ThreadLocal<StringBuilder>() {
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * 级别已经通过检查后格式化并打印。最后一个参数是Throwable并且没有对应的"{}"时，
+     * 不参与格式化，作为异常打印。
+     */
+    private static void printFormatted(FlightRecorder.Record record,
+            int level, String tag, String format, int count, Object arg1,
+            Object arg2, Object arg3, Object arg4) {
+        int formatCount = formatCount(format, count, arg1, arg2, arg3, arg4);
+        Throwable tr = formatCount < count ? (Throwable) (count == 1 ? arg1
+                : count == 2 ? arg2 : count == 3 ? arg3 : arg4) : null;
+        print(record, level, tag, render(format, formatCount, arg1, arg2,
+                arg3, arg4), tr);
+    }
+
+    /**
+     * 参与格式化的参数个数：最后一个参数是没有对应"{}"的Throwable时少一个
+     */
+    static int formatCount(String format, int count, Object arg1,
+            Object arg2, Object arg3, Object arg4) {
+        Object last = count == 1 ? arg1 : count == 2 ? arg2 : count == 3 ? arg3
+                : arg4;
+        if (last instanceof Throwable && format != null
+                && placeholders(format, count) < count) {
+            return count - 1;
+        }
+        return count;
+    }
+
+    /**
+     * format中未转义的"{}"个数，最多数到max
+     */
+    private static int placeholders(String format, int max) {
+        int count = 0;
+        int start = 0;
+        while (count < max) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            if (!isEscaped(format, index)) {
+                count++;
+            }
+            start = index + 2;
+        }
+        return count;
+    }
+
+    /**
+     * "\{}"表示原样输出"{}"；"\\{}"表示一个反斜杠后面跟占位符
+     */
+    private static boolean isEscaped(String format, int index) {
+        return index > 0 && format.charAt(index - 1) == '\\'
+                && (index < 2 || format.charAt(index - 2) != '\\');
+    }
+
+    /**
+     * 把format中的前count个"{}"替换为参数，多余的"{}"原样保留，"\{}"输出"{}"。
+     * 使用线程内复用的StringBuilder，不经过java.util.Formatter。
+     */
+    static String render(String format, int count, Object arg1,
+            Object arg2, Object arg3, Object arg4) {
+        if (format == null) {
+            return null;
+        }
+        StringBuilder builder = thread_local_builder.get();
+        builder.setLength(0);
+        int start = 0;
+        int i = 0;
+        while (i < count) {
+            int index = format.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            if (isEscaped(format, index)) {
+                builder.append(format, start, index - 1).append("{}");
+                start = index + 2;
+                continue;
+            }
+            if (index > 0 && format.charAt(index - 1) == '\\') {
+                // 两个反斜杠只输出一个
+                builder.append(format, start, index - 1);
+            } else {
+                builder.append(format, start, index);
+            }
+            builder.append(i == 0 ? arg1 : i == 1 ? arg2 : i == 2 ? arg3
+                    : arg4);
+            i++;
+            start = index + 2;
+        }
+        builder.append(format, start, format.length());
+        String message = builder.toString();
+        if (builder.capacity() > MAX_REUSED_BUILDER) {
+            thread_local_builder.set(new StringBuilder(256));
+        }
+        return message;
+    }
+
     public static String format(String msg, Object... args) {
         ReusableFormatter formatter = thread_local_formatter.get();
         return formatter.format(msg, args);
@@ -0,0 +1,449 @@
+package com.finddreams.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步日志写入器。调用方只把日志放入有界的无锁环形缓冲区，不做任何IO；
+ * 由单独的写线程批量取出，写入长期打开、按天切换的日志文件
+ * (path/yyyy/MM/dd.log)，按缓冲大小或时间间隔刷盘。
+ * 文件大小、压缩和保留天数由LogRetention控制，超过大小时切换到dd.1.log等后续段。
+ * 可选紧凑的二进制格式(path/yyyy/MM/dd.blog)，用BinaryLogDecoder还原为文本；
+ * 二进制格式每次启动写新的一段，不追加到已有的.blog文件。
+ */
+public class LogWriter implements LogSink {
+
+    /**
+     * 缓冲区满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /** 丢弃新日志，调用方不阻塞 */
+        DROP,
+        /** 调用方等待，直到写线程腾出空间 */
+        BLOCK
+    }
+
+    /**
+     * 日志文件格式
+     */
+    public enum Format {
+        /** 文本: [yyyy-MM-dd HH:mm:ss] tag msg */
+        TEXT,
+        /** 二进制: 时间差、tag字典、变长整数 */
+        BINARY,
+        /** 二进制并按块deflate压缩 */
+        BINARY_COMPRESSED
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_FLUSH_BYTES = 32 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String rootPath;
+    private final OverflowPolicy overflowPolicy;
+    private final int flushBytes;
+    private final long flushIntervalMs;
+    private final BinaryLogEncoder binaryEncoder;
+    private final boolean compressedFormat;
+    private final LogRetention retention;
+
+    // 环形缓冲区：sequences[i]标记槽位状态，生产者CAS抢占tail，单个消费者推进head
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile boolean writerParked;
+
+    // 以下字段只在写线程中访问
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder line = new StringBuilder(256);
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat(
+            "[yyyy-MM-dd HH:mm:ss]", Locale.SIMPLIFIED_CHINESE);
+    private long lastSecond = -1;
+    private String lastTime;
+    private FileChannel channel;
+    private File currentFile;
+    // 当前文件的大小，由写入的字节数累加，不查询文件系统
+    private long fileBytes;
+    private String dayPath;
+    private int segment;
+    private long dayStart;
+    private long dayEnd;
+    private long firstPendingTime;
+    private final BinaryLogEncoder.Sink sink = new BinaryLogEncoder.Sink() {
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    writeBuffer();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    };
+
+    private static final class Slot {
+        long time;
+        String tag;
+        String msg;
+    }
+
+    public LogWriter(String rootPath) {
+        this(rootPath, DEFAULT_CAPACITY, OverflowPolicy.DROP,
+                DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @param rootPath
+     *            日志根目录，以"/"结尾
+     * @param capacity
+     *            缓冲区容量(条)，向上取整为2的幂
+     * @param overflowPolicy
+     *            缓冲区满时的处理策略
+     * @param flushBytes
+     *            待写数据达到该字节数时刷盘
+     * @param flushIntervalMs
+     *            最早一条未刷盘日志超过该时间后刷盘
+     */
+    public LogWriter(String rootPath, int capacity,
+            OverflowPolicy overflowPolicy, int flushBytes, long flushIntervalMs) {
+        this(rootPath, capacity, overflowPolicy, flushBytes, flushIntervalMs,
+                Format.TEXT);
+    }
+
+    /**
+     * @param format
+     *            日志文件格式
+     */
+    public LogWriter(String rootPath, int capacity,
+            OverflowPolicy overflowPolicy, int flushBytes,
+            long flushIntervalMs, Format format) {
+        this(rootPath, capacity, overflowPolicy, flushBytes, flushIntervalMs,
+                format, new LogRetention());
+    }
+
+    /**
+     * @param retention
+     *            文件切分、压缩和清理策略
+     */
+    public LogWriter(String rootPath, int capacity,
+            OverflowPolicy overflowPolicy, int flushBytes,
+            long flushIntervalMs, Format format, LogRetention retention) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.rootPath = rootPath;
+        this.overflowPolicy = overflowPolicy;
+        this.flushBytes = Math.min(Math.max(flushBytes, 1), BUFFER_SIZE);
+        this.flushIntervalMs = flushIntervalMs;
+        this.binaryEncoder = format == Format.TEXT ? null
+                : new BinaryLogEncoder(format == Format.BINARY_COMPRESSED);
+        this.compressedFormat = format == Format.BINARY_COMPRESSED;
+        this.retention = retention;
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "LogWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 放入一条日志，不做任何IO。
+     *
+     * @return 缓冲区已满且策略为DROP(或写入器已关闭)时返回false
+     */
+    @Override
+    public boolean write(String tag, String msg) {
+        long time = System.currentTimeMillis();
+        while (running) {
+            if (offer(time, tag, msg)) {
+                if (writerParked) {
+                    LockSupport.unpark(writerThread);
+                }
+                return true;
+            }
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                break;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(100000L);
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    private boolean offer(long time, String tag, String msg) {
+        for (;;) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Slot slot = slots[index];
+                    slot.time = time;
+                    slot.tag = tag;
+                    slot.msg = msg;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 被丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 停止写线程：写完缓冲区中剩余的日志、刷盘并关闭文件。
+     *
+     * @param timeoutMs
+     *            最长等待时间，0表示不等待
+     */
+    @Override
+    public void shutdown(long timeoutMs) {
+        running = false;
+        LockSupport.unpark(writerThread);
+        if (timeoutMs <= 0) {
+            return;
+        }
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            int count = drain();
+            long now = System.currentTimeMillis();
+            int pending = pendingBytes();
+            if (pending > 0
+                    && (pending >= flushBytes || now - firstPendingTime
+                            >= flushIntervalMs)) {
+                flushBuffer();
+            }
+            if (count == 0) {
+                long waitMs = pendingBytes() > 0 ? firstPendingTime
+                        + flushIntervalMs - now : flushIntervalMs;
+                writerParked = true;
+                if (tail.get() == head) {
+                    LockSupport.parkNanos(Math.max(waitMs, 1) * 1000000L);
+                }
+                writerParked = false;
+            }
+        }
+        drain();
+        flushBuffer();
+        closeChannel();
+    }
+
+    private int drain() {
+        int count = 0;
+        for (;;) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return count;
+            }
+            Slot slot = slots[index];
+            long time = slot.time;
+            String tag = slot.tag;
+            String msg = slot.msg;
+            slot.tag = null;
+            slot.msg = null;
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+            append(time, tag, msg);
+        }
+    }
+
+    private void append(long time, String tag, String msg) {
+        if (time < dayStart || time >= dayEnd) {
+            flushBuffer();
+            boolean closed = channel != null;
+            closeChannel();
+            openChannel(time);
+            if (closed || channel != null) {
+                // 前一天的文件写完了；启动后第一次打开时清理以前留下的文件
+                retention.schedule(rootPath, currentFile, !compressedFormat);
+            }
+        } else if (channel != null && retention.getMaxFileBytes() > 0
+                && fileBytes + pendingBytes() >= retention.getMaxFileBytes()) {
+            flushBuffer();
+            closeChannel();
+            segment++;
+            openSegment(time);
+            retention.schedule(rootPath, currentFile, !compressedFormat);
+        }
+        if (channel == null) {
+            return;
+        }
+        if (pendingBytes() == 0) {
+            firstPendingTime = System.currentTimeMillis();
+        }
+        if (binaryEncoder != null) {
+            binaryEncoder.append(time, tag, msg, sink);
+            if (binaryEncoder.pendingBytes() >= BinaryLogEncoder.BLOCK_SIZE) {
+                binaryEncoder.finishBlock(sink);
+            }
+            return;
+        }
+        line.setLength(0);
+        line.append(formatTime(time)).append(' ').append(tag).append(' ')
+                .append(msg).append("\r\n");
+        CharBuffer in = CharBuffer.wrap(line);
+        encoder.reset();
+        while (encoder.encode(in, buffer, true) == CoderResult.OVERFLOW) {
+            writeBuffer();
+        }
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            writeBuffer();
+        }
+    }
+
+    private String formatTime(long time) {
+        long second = time / 1000;
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastTime = timeFormat.format(new Date(time));
+        }
+        return lastTime;
+    }
+
+    private void openChannel(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        String day = String.format(Locale.US, "%02d",
+                calendar.get(Calendar.DAY_OF_MONTH));
+        String dir = rootPath
+                + String.format(Locale.US, "%04d/%02d/",
+                        calendar.get(Calendar.YEAR),
+                        calendar.get(Calendar.MONTH) + 1);
+        dayPath = dir + day;
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        dayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        dayEnd = calendar.getTimeInMillis();
+        currentFile = null;
+        if (!LogUtils.isSDAva()) {
+            return;
+        }
+        File dayDir = new File(dir);
+        if (!dayDir.exists()) {
+            dayDir.mkdirs();
+        }
+        // 每天只在第一次打开时列目录，之后的段号在内存中递增。
+        // 二进制格式重启后总是从新的一段开始，不在可能不完整的块后面追加
+        segment = retention.nextSegment(dayDir, day, binaryEncoder == null);
+        openSegment(time);
+    }
+
+    /**
+     * 打开当天的第segment段：dd.log、dd.1.log、dd.2.log...
+     */
+    private void openSegment(long time) {
+        File file = new File(dayPath + (segment == 0 ? "" : "." + segment)
+                + (binaryEncoder == null ? ".log" : ".blog"));
+        currentFile = file;
+        try {
+            channel = new FileOutputStream(file, true).getChannel();
+            fileBytes = channel.size();
+            if (binaryEncoder != null) {
+                binaryEncoder.startFile(time, fileBytes == 0, sink);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int pendingBytes() {
+        return binaryEncoder == null ? buffer.position() : buffer.position()
+                + binaryEncoder.pendingBytes();
+    }
+
+    private void flushBuffer() {
+        if (binaryEncoder != null) {
+            binaryEncoder.finishBlock(sink);
+        }
+        writeBuffer();
+    }
+
+    private void writeBuffer() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            if (channel != null) {
+                while (buffer.hasRemaining()) {
+                    fileBytes += channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,692 @@
+package com.finddreams.log;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 内存映射的日志写入器。调用线程直接把日志写进映射到内存的文件，没有写线程，也没有系统调用。
+ *
+ * 每段文件(path/yyyy/MM/dd.mlog、dd.1.mlog...)创建时预先写满0，整段映射到内存；
+ * 写入时用原子变量分配位置，各线程写各自的区域，互不加锁。写入的是页缓存，
+ * 进程崩溃或被杀后由内核写回磁盘，已经写入的日志不会丢失，只有防止断电才需要flush()。
+ *
+ * 所有文件操作都在后台线程：当前段一打开就预先创建下一段备用，写满时只在锁内换成备用段；
+ * 跨天时在新的一段准备好之前继续写旧的段。备用段还没准备好时日志被丢弃并计数，
+ * 调用线程不会等待IO。换下的段等正在写它的线程都写完后，再交给LogRetention压缩和清理。
+ *
+ * 每条记录带长度和CRC32。进程在写到一半时退出只会留下校验失败的记录，
+ * 重新打开时用recover()的方式扫描到最后一条有效记录，从那里继续写。
+ * 用decode()还原为与LogWriter相同的文本格式。
+ */
+public class MappedLogWriter implements LogSink {
+
+    // "MLOG"
+    static final int MAGIC = 0x4D4C4F47;
+    static final int VERSION = 1;
+    // 文件头: magic、版本
+    static final int FILE_HEADER = 8;
+    // 记录头: 长度、CRC32、时间、tag字节数、内容字节数。记录按8字节对齐
+    static final int RECORD_HEADER = 24;
+    static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+    private static final long RETRY_INTERVAL_MS = 1000;
+    private static final String SUFFIX = ".mlog";
+
+    private static ThreadPoolExecutor sExecutor;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<CRC32> CRC = new ThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
+    /**
+     * 扫描一段文件的结果
+     */
+    public static final class Recovery {
+        /** 有效的记录数 */
+        public final int records;
+        /** 校验失败(写到一半时进程退出)被跳过的记录数 */
+        public final int torn;
+        /** 最后一条记录之后的偏移，即继续写入的位置 */
+        public final int end;
+        /** false表示遇到了损坏的长度，之后的内容无法解析 */
+        public final boolean clean;
+
+        Recovery(int records, int torn, int end, boolean clean) {
+            this.records = records;
+            this.torn = torn;
+            this.end = end;
+            this.clean = clean;
+        }
+
+        @Override
+        public String toString() {
+            return "Recovery[records=" + records + " torn=" + torn + " end="
+                    + end + " clean=" + clean + "]";
+        }
+    }
+
+    private interface Visitor {
+        void visit(long time, String tag, String msg) throws IOException;
+    }
+
+    /**
+     * 映射到内存的一段文件
+     */
+    private static final class Segment {
+        final File file;
+        final long dayEnd;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicInteger position;
+        // 正在写这一段的线程数，换下后降为0才能压缩
+        final AtomicInteger writers = new AtomicInteger();
+
+        Segment(File file, long dayEnd, MappedByteBuffer buffer, int start) {
+            this.file = file;
+            this.dayEnd = dayEnd;
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.position = new AtomicInteger(start);
+        }
+
+        /**
+         * 写入已经分配到的区域。先写长度，写到一半的记录在恢复时也能整条跳过；
+         * CRC最后写，相当于提交标记
+         */
+        void put(int offset, byte[] record) {
+            buffer.putInt(offset, record.length);
+            ByteBuffer body = buffer.duplicate();
+            body.position(offset + 8);
+            body.put(record, 8, record.length - 8);
+            buffer.putInt(offset + 4, readInt(record, 4));
+        }
+    }
+
+    private final String rootPath;
+    private final LogRetention retention;
+    private final int segmentBytes;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Segment current;
+    private volatile boolean running = true;
+    private volatile long retryTime;
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    private volatile Recovery recovery;
+    // 备用段由this保护
+    private Segment spare;
+
+    public MappedLogWriter(String rootPath) {
+        this(rootPath, new LogRetention());
+    }
+
+    /**
+     * 构造时在调用线程打开当天最后一段并恢复，或者创建新的一段，之后的文件操作都在后台线程。
+     *
+     * @param rootPath
+     *            日志根目录，以"/"结尾
+     * @param retention
+     *            getMaxFileBytes()为每段的大小(0时用默认值)，写完的段按它压缩和清理
+     */
+    public MappedLogWriter(String rootPath, LogRetention retention) {
+        long size = retention.getMaxFileBytes() > 0 ? retention
+                .getMaxFileBytes() : LogRetention.DEFAULT_MAX_FILE_BYTES;
+        this.rootPath = rootPath;
+        this.retention = retention;
+        this.segmentBytes = (int) Math.min(Math.max(size, MIN_SEGMENT_BYTES),
+                MAX_SEGMENT_BYTES) & ~7;
+        long now = System.currentTimeMillis();
+        Segment segment = openSegment(now, null);
+        if (segment != null) {
+            current = segment;
+            retention.schedule(rootPath, segment.file, true);
+        } else {
+            retryTime = now + RETRY_INTERVAL_MS;
+        }
+        prepare();
+    }
+
+    /**
+     * 写入一条日志，只有几次原子操作和一次内存复制，不做IO。
+     *
+     * @return 无法打开文件(如存储卡不可用)、备用段还没准备好或写入器已关闭时返回false
+     */
+    @Override
+    public boolean write(String tag, String msg) {
+        long time = System.currentTimeMillis();
+        byte[] record = null;
+        while (running) {
+            Segment segment = current;
+            if (segment == null) {
+                prepare();
+                break;
+            }
+            if (time >= segment.dayEnd) {
+                // 跨天：新的一段由后台线程创建，准备好之前继续写旧的段
+                prepare();
+            }
+            if (record == null) {
+                record = encode(time, tag, msg,
+                        Math.min(MAX_RECORD_BYTES, segmentBytes - FILE_HEADER));
+            }
+            segment.writers.incrementAndGet();
+            try {
+                // 先登记再确认，换下的段在retire()中等待登记的线程写完
+                if (current != segment) {
+                    continue;
+                }
+                int offset = segment.position.getAndAdd(record.length);
+                if (offset >= 0
+                        && (long) offset + record.length <= segment.capacity) {
+                    segment.put(offset, record);
+                    return true;
+                }
+            } finally {
+                segment.writers.decrementAndGet();
+            }
+            // 本段放不下，换成备用段后重试
+            if (!roll(segment)) {
+                break;
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 把写满的expected换成备用段，锁内只交换引用。其他线程已经换过时直接返回
+     *
+     * @return 是否有可写的段
+     */
+    private boolean roll(Segment expected) {
+        Segment next;
+        synchronized (this) {
+            if (current != expected) {
+                return current != null;
+            }
+            next = spare;
+            if (next != null) {
+                spare = null;
+                current = next;
+            }
+        }
+        // 准备下一段备用段
+        prepare();
+        if (next == null) {
+            return false;
+        }
+        retire(expected);
+        return true;
+    }
+
+    /**
+     * 在后台线程中准备段，已经在准备或者上次打开失败不久时直接返回
+     */
+    private void prepare() {
+        if (!preparing.get() && running
+                && System.currentTimeMillis() >= retryTime
+                && preparing.compareAndSet(false, true)) {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    prepareSegments();
+                }
+            });
+        }
+    }
+
+    /**
+     * 后台线程：没有当前段(启动时打开失败)或跨天时创建新的当前段，并保证有一段备用
+     */
+    private void prepareSegments() {
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                Segment cur = current;
+                boolean replace = cur == null || now >= cur.dayEnd;
+                synchronized (this) {
+                    if (!replace && spare != null) {
+                        break;
+                    }
+                }
+                // 不持有锁，roll()不会等待这里的IO
+                Segment next = openSegment(now, cur);
+                if (next == null) {
+                    retryTime = now + RETRY_INTERVAL_MS;
+                    break;
+                }
+                Segment stale = null;
+                Segment retired = null;
+                synchronized (this) {
+                    if (replace && current == cur) {
+                        // 旧的备用段属于前一天
+                        stale = spare;
+                        spare = null;
+                        current = next;
+                        retired = cur;
+                    } else if (spare == null && next.dayEnd == current.dayEnd) {
+                        spare = next;
+                    } else {
+                        stale = next;
+                    }
+                }
+                if (stale != null && stale.position.get() == FILE_HEADER) {
+                    // 没有被写过的备用段
+                    stale.file.delete();
+                }
+                if (retired != null) {
+                    retire(retired);
+                } else if (replace) {
+                    retention.schedule(rootPath, next.file, true);
+                }
+            }
+        } finally {
+            preparing.set(false);
+        }
+        // 结束前其他线程可能请求过准备，被忽略的请求在这里补上
+        if (needsPreparing()) {
+            prepare();
+        }
+    }
+
+    private synchronized boolean needsPreparing() {
+        Segment segment = current;
+        return segment == null || spare == null
+                || System.currentTimeMillis() >= segment.dayEnd;
+    }
+
+    /**
+     * 换下的段等正在写它的线程写完后，再交给LogRetention压缩和清理
+     */
+    private void retire(final Segment retired) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                while (retired.writers.get() > 0) {
+                    Thread.yield();
+                }
+                Segment active = current;
+                retention.schedule(rootPath,
+                        (active != null ? active : retired).file, true);
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor executor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "MappedLogWriter");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * 打开时间所在那天的下一段。启动时(previous为null)先尝试恢复当天最后一段并继续写。
+     * 会写文件，只在构造方法和后台线程中调用
+     */
+    private Segment openSegment(long time, Segment previous) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        String day = String.format(Locale.US, "%02d",
+                calendar.get(Calendar.DAY_OF_MONTH));
+        File dayDir = new File(rootPath
+                + String.format(Locale.US, "%04d/%02d/",
+                        calendar.get(Calendar.YEAR),
+                        calendar.get(Calendar.MONTH) + 1));
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        long dayEnd = calendar.getTimeInMillis();
+        if (!LogUtils.isSDAva()) {
+            return null;
+        }
+        if (!dayDir.exists()) {
+            dayDir.mkdirs();
+        }
+        int last = lastSegment(dayDir, day);
+        try {
+            // 已经压缩的段不再写入
+            while (previous == null && last >= 0
+                    && segmentFile(dayDir, day, last).exists()) {
+                File file = segmentFile(dayDir, day, last);
+                Segment resumed = resume(file, dayEnd);
+                if (resumed == null) {
+                    break;
+                }
+                if (resumed.position.get() == FILE_HEADER && last > 0
+                        && segmentFile(dayDir, day, last - 1).exists()) {
+                    // 上次退出时预先创建、还没写过的备用段，删除后从前一段继续
+                    file.delete();
+                    last--;
+                    continue;
+                }
+                return resumed;
+            }
+            return create(segmentFile(dayDir, day, last + 1), dayEnd);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static File segmentFile(File dayDir, String day, int index) {
+        return new File(dayDir, day + (index == 0 ? "" : "." + index) + SUFFIX);
+    }
+
+    /**
+     * 当天最大的段号(包括已压缩的)，没有时返回-1
+     */
+    private static int lastSegment(File dayDir, String day) {
+        String[] names = dayDir.list();
+        int last = -1;
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(day + ".")
+                        && (name.endsWith(SUFFIX) || name.endsWith(SUFFIX
+                                + ".gz"))) {
+                    last = Math.max(last, LogRetention.segmentIndex(name));
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * 扫描上次没有写满的段，干净地停在未写过的区域时从那里继续写。
+     * 遇到损坏的长度时后面可能有残留的数据，不再写入这一段
+     */
+    private Segment resume(File file, long dayEnd) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long length = raf.length();
+            if (length < FILE_HEADER + RECORD_HEADER
+                    || length > MAX_SEGMENT_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                return null;
+            }
+            Recovery result = scan(buffer, null);
+            recovery = result;
+            if (!result.clean || result.end > buffer.capacity() - RECORD_HEADER) {
+                return null;
+            }
+            return new Segment(file, dayEnd, buffer, result.end);
+        } finally {
+            // 关闭文件后映射仍然有效
+            raf.close();
+        }
+    }
+
+    /**
+     * 创建一段新文件。实际写入0而不是setLength()留下空洞：
+     * 磁盘空间不足时在这里失败，而不是写映射内存时收到SIGBUS
+     */
+    private Segment create(File file, long dayEnd) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+            long written = 0;
+            while (written < segmentBytes) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), segmentBytes
+                        - written));
+                written += channel.write(zeros, written);
+            }
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            return new Segment(file, dayEnd, buffer, FILE_HEADER);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 编码一条完整的记录，超过maxBytes时截断内容
+     */
+    static byte[] encode(long time, String tag, String msg, int maxBytes) {
+        byte[] tagBytes = String.valueOf(tag).getBytes(UTF_8);
+        byte[] msgBytes = String.valueOf(msg).getBytes(UTF_8);
+        int room = (maxBytes & ~7) - RECORD_HEADER;
+        int tagLength = Math.min(tagBytes.length, room);
+        int msgLength = Math.min(msgBytes.length, room - tagLength);
+        int length = (RECORD_HEADER + tagLength + msgLength + 7) & ~7;
+        byte[] record = new byte[length];
+        ByteBuffer out = ByteBuffer.wrap(record);
+        out.putInt(length);
+        out.putInt(0);
+        out.putLong(time);
+        out.putInt(tagLength);
+        out.putInt(msgLength);
+        out.put(tagBytes, 0, tagLength);
+        out.put(msgBytes, 0, msgLength);
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(record, 8, length - 8);
+        out.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * 从文件头开始逐条校验，停在第一个长度为0(未写过)或长度不合法的位置
+     */
+    private static Recovery scan(ByteBuffer buffer, Visitor visitor)
+            throws IOException {
+        int limit = buffer.limit();
+        if (limit < FILE_HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a mapped log file");
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = new byte[1024];
+        int records = 0;
+        int torn = 0;
+        int pos = FILE_HEADER;
+        boolean clean = true;
+        while (pos <= limit - RECORD_HEADER) {
+            int length = buffer.getInt(pos);
+            if (length == 0) {
+                break;
+            }
+            if (length < RECORD_HEADER || (length & 7) != 0
+                    || length > limit - pos) {
+                clean = false;
+                break;
+            }
+            if (body.length < length) {
+                body = new byte[length];
+            }
+            ByteBuffer in = buffer.duplicate();
+            in.position(pos);
+            in.get(body, 0, length);
+            crc.reset();
+            crc.update(body, 8, length - 8);
+            int tagLength = readInt(body, 16);
+            int msgLength = readInt(body, 20);
+            if ((int) crc.getValue() != readInt(body, 4) || tagLength < 0
+                    || msgLength < 0
+                    || RECORD_HEADER + tagLength + msgLength > length) {
+                torn++;
+            } else {
+                records++;
+                if (visitor != null) {
+                    long time = ((long) readInt(body, 8) << 32)
+                            | (readInt(body, 12) & 0xFFFFFFFFL);
+                    visitor.visit(time, new String(body, RECORD_HEADER,
+                            tagLength, UTF_8), new String(body, RECORD_HEADER
+                            + tagLength, msgLength, UTF_8));
+                }
+            }
+            pos += length;
+        }
+        return new Recovery(records, torn, pos, clean);
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    /**
+     * 读入一段文件，LogRetention压缩过的.gz先解压
+     */
+    private static ByteBuffer read(File file) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            InputStream in = new GZIPInputStream(new FileInputStream(file));
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[16 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                return ByteBuffer.wrap(out.toByteArray());
+            } finally {
+                in.close();
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 扫描一段文件，找到最后一条有效记录，不修改文件。
+     * 在两次写入之间被杀的进程不会留下校验失败的记录；
+     * 多个线程同时写时，还没来得及写长度的记录之后的内容会被当作未写过
+     */
+    public static Recovery recover(File file) throws IOException {
+        return scan(read(file), null);
+    }
+
+    /**
+     * 把一段文件还原为文本，格式同LogWriter: [yyyy-MM-dd HH:mm:ss] tag msg
+     */
+    public static Recovery decode(File file, final Writer out)
+            throws IOException {
+        final SimpleDateFormat format = new SimpleDateFormat(
+                "[yyyy-MM-dd HH:mm:ss]", Locale.SIMPLIFIED_CHINESE);
+        return scan(read(file), new Visitor() {
+            @Override
+            public void visit(long time, String tag, String msg)
+                    throws IOException {
+                out.write(format.format(new Date(time)));
+                out.write(' ');
+                out.write(tag);
+                out.write(' ');
+                out.write(msg);
+                out.write("\r\n");
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: MappedLogWriter <input.mlog[.gz]> [output.log]");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                args.length > 1 ? new FileOutputStream(args[1]) : System.out,
+                "UTF-8"));
+        try {
+            Recovery result = decode(new File(args[0]), out);
+            System.err.println(result);
+        } finally {
+            out.flush();
+            if (args.length > 1) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 启动时恢复的那一段的扫描结果，新建段时为null
+     */
+    public Recovery getRecovery() {
+        return recovery;
+    }
+
+    /**
+     * 正在写的文件
+     */
+    public File getCurrentFile() {
+        Segment segment = current;
+        return segment != null ? segment.file : null;
+    }
+
+    /**
+     * 被丢弃的日志条数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 把当前段写回磁盘。进程崩溃时内核会写回，只有需要防止断电丢失时才调用
+     */
+    public void flush() {
+        Segment segment = current;
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * 停止写入并把当前段写回磁盘。映射在对象被回收时释放
+     */
+    @Override
+    public void shutdown(long timeoutMs) {
+        running = false;
+        flush();
+    }
+}
@@ -0,0 +1,345 @@
+package com.lhdz.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Environment;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+/**
+ * 把相册、文档选择器返回的Uri解析为文件路径。
+ *
+ * 多选返回的媒体Uri按所在的表分组，每组用一次_ID IN (...)查询，
+ * 选择50张图片只查询一次，而不是50次。结果保存在LRU缓存中，
+ * 媒体库内容变化(ContentObserver)时清空缓存。
+ * 只有媒体库的Uri进缓存，其他应用提供的Uri每次都查询。
+ */
+public class MediaPathResolver {
+
+	public static final int DEFAULT_CACHE_SIZE = 200;
+
+	// SQLite默认一条语句最多999个参数
+	private static final int MAX_ARGS_PER_QUERY = 500;
+	private static final String MEDIA_AUTHORITY = "media";
+
+	/**
+	 * 查询来源，默认是ContentResolver，测试时可以替换为计数的假实现
+	 */
+	public interface Source {
+		Cursor query(Uri uri, String[] projection, String selection,
+				String[] selectionArgs);
+	}
+
+	/**
+	 * 同一张表中待查询的ID，以及每个ID对应的结果下标
+	 */
+	private static class Group {
+		final Uri collection;
+		final LinkedHashMap<String, List<Integer>> ids = new LinkedHashMap<String, List<Integer>>();
+
+		Group(Uri collection) {
+			this.collection = collection;
+		}
+	}
+
+	private static MediaPathResolver sDefault;
+
+	private final Source source;
+	private final LruCache<String, String> cache;
+	// 每次清空缓存加1，查询期间发生变化时结果不写入缓存
+	private final AtomicInteger generation = new AtomicInteger();
+	private ContentResolver observedResolver;
+	private ContentObserver observer;
+
+	/**
+	 * 使用resolver查询，并监听图片、视频、音频表的变化
+	 */
+	public MediaPathResolver(final ContentResolver resolver, int cacheSize) {
+		this(new Source() {
+			@Override
+			public Cursor query(Uri uri, String[] projection,
+					String selection, String[] selectionArgs) {
+				return resolver.query(uri, projection, selection,
+						selectionArgs, null);
+			}
+		}, cacheSize);
+		observedResolver = resolver;
+		observer = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				invalidate();
+			}
+		};
+		resolver.registerContentObserver(
+				MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+		resolver.registerContentObserver(
+				MediaStore.Video.Media.EXTERNAL_CONTENT_URI, true, observer);
+		resolver.registerContentObserver(
+				MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+	}
+
+	/**
+	 * 不监听变化，需要时调用invalidate()
+	 */
+	public MediaPathResolver(Source source, int cacheSize) {
+		this.source = source;
+		cache = new LruCache<String, String>(cacheSize);
+	}
+
+	/**
+	 * CameraUtil和ImageUtils使用的实例，持有ApplicationContext
+	 */
+	public static synchronized MediaPathResolver getDefault(Context context) {
+		if (sDefault == null) {
+			sDefault = new MediaPathResolver(context.getApplicationContext()
+					.getContentResolver(), DEFAULT_CACHE_SIZE);
+		}
+		return sDefault;
+	}
+
+	/**
+	 * 解析一个Uri，找不到时返回null
+	 */
+	public String resolve(Uri uri) {
+		return resolveAll(Collections.singletonList(uri)).get(0);
+	}
+
+	/**
+	 * 批量解析，返回与uris顺序对应的路径，找不到的为null
+	 */
+	public List<String> resolveAll(List<Uri> uris) {
+		String[] paths = new String[uris.size()];
+		int startGeneration = generation.get();
+		Map<String, Group> groups = new LinkedHashMap<String, Group>();
+		for (int i = 0; i < paths.length; i++) {
+			Uri uri = uris.get(i);
+			if (uri == null) {
+				continue;
+			}
+			String cached = cache.get(uri.toString());
+			if (cached != null) {
+				paths[i] = cached;
+				continue;
+			}
+			String[] ref = mediaRef(uri);
+			if (ref == null) {
+				paths[i] = resolveSingle(uri);
+				continue;
+			}
+			Group group = groups.get(ref[0]);
+			if (group == null) {
+				group = new Group(Uri.parse(ref[0]));
+				groups.put(ref[0], group);
+			}
+			List<Integer> indexes = group.ids.get(ref[1]);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>(1);
+				group.ids.put(ref[1], indexes);
+			}
+			indexes.add(i);
+		}
+		for (Group group : groups.values()) {
+			queryGroup(group, paths);
+		}
+		if (generation.get() == startGeneration) {
+			for (Group group : groups.values()) {
+				for (List<Integer> indexes : group.ids.values()) {
+					for (int index : indexes) {
+						if (paths[index] != null) {
+							cache.put(uris.get(index).toString(), paths[index]);
+						}
+					}
+				}
+			}
+		}
+		return Arrays.asList(paths);
+	}
+
+	private void queryGroup(Group group, String[] paths) {
+		List<String> ids = new ArrayList<String>(group.ids.keySet());
+		for (int start = 0; start < ids.size(); start += MAX_ARGS_PER_QUERY) {
+			List<String> chunk = ids.subList(start,
+					Math.min(ids.size(), start + MAX_ARGS_PER_QUERY));
+			StringBuilder selection = new StringBuilder(
+					MediaStore.Images.Media._ID).append(" IN (");
+			for (int i = 0; i < chunk.size(); i++) {
+				selection.append(i == 0 ? "?" : ",?");
+			}
+			selection.append(')');
+			Map<String, String> found = new HashMap<String, String>();
+			Cursor cursor = source.query(group.collection, new String[] {
+					MediaStore.Images.Media._ID, MediaStore.Images.Media.DATA },
+					selection.toString(), chunk.toArray(new String[chunk.size()]));
+			if (cursor == null) {
+				continue;
+			}
+			try {
+				int idIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+				int dataIndex = cursor
+						.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
+				while (cursor.moveToNext()) {
+					found.put(String.valueOf(cursor.getLong(idIndex)),
+							cursor.getString(dataIndex));
+				}
+			} finally {
+				cursor.close();
+			}
+			for (String id : chunk) {
+				String path = found.get(id);
+				for (int index : group.ids.get(id)) {
+					paths[index] = path;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 媒体库中的记录返回{表的Uri, ID}，其他Uri返回null
+	 */
+	private static String[] mediaRef(Uri uri) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+				&& CameraUtil.isMediaDocument(uri)) {
+			String docId = documentId(uri);
+			if (docId == null) {
+				return null;
+			}
+			String[] split = docId.split(":");
+			Uri collection = null;
+			if ("image".equals(split[0])) {
+				collection = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+			} else if ("video".equals(split[0])) {
+				collection = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+			} else if ("audio".equals(split[0])) {
+				collection = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+			}
+			if (collection == null || split.length < 2) {
+				return null;
+			}
+			return new String[] { collection.toString(), split[1] };
+		}
+		// content://media/external/images/media/123
+		if ("content".equalsIgnoreCase(uri.getScheme())
+				&& MEDIA_AUTHORITY.equals(uri.getAuthority())) {
+			String s = uri.toString();
+			int slash = s.lastIndexOf('/');
+			String id = s.substring(slash + 1);
+			if (s.indexOf('?') < 0 && isNumber(id)) {
+				return new String[] { s.substring(0, slash), id };
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 不能批量查询的Uri，逻辑同原来的CameraUtil.getImageAbsolutePath()
+	 */
+	private String resolveSingle(Uri uri) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			if (CameraUtil.isExternalStorageDocument(uri)) {
+				String docId = documentId(uri);
+				if (docId != null) {
+					String[] split = docId.split(":");
+					if ("primary".equalsIgnoreCase(split[0])
+							&& split.length > 1) {
+						return Environment.getExternalStorageDirectory() + "/"
+								+ split[1];
+					}
+					return null;
+				}
+			} else if (CameraUtil.isDownloadsDocument(uri)) {
+				String id = documentId(uri);
+				if (id != null && isNumber(id)) {
+					return queryData(ContentUris.withAppendedId(
+							Uri.parse("content://downloads/public_downloads"),
+							Long.parseLong(id)));
+				}
+			}
+		}
+		if ("content".equalsIgnoreCase(uri.getScheme())) {
+			// Return the remote address
+			if (CameraUtil.isGooglePhotosUri(uri)) {
+				return uri.getLastPathSegment();
+			}
+			return queryData(uri);
+		}
+		if ("file".equalsIgnoreCase(uri.getScheme())) {
+			return uri.getPath();
+		}
+		return null;
+	}
+
+	private String queryData(Uri uri) {
+		Cursor cursor = source.query(uri,
+				new String[] { MediaStore.Images.Media.DATA }, null, null);
+		if (cursor == null) {
+			return null;
+		}
+		try {
+			if (cursor.moveToFirst()) {
+				return cursor.getString(cursor
+						.getColumnIndexOrThrow(MediaStore.Images.Media.DATA));
+			}
+		} finally {
+			cursor.close();
+		}
+		return null;
+	}
+
+	/**
+	 * 不是文档Uri时返回null
+	 */
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	private static String documentId(Uri uri) {
+		try {
+			return DocumentsContract.getDocumentId(uri);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isNumber(String s) {
+		if (s.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 清空缓存，媒体库变化时自动调用
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+		cache.evictAll();
+	}
+
+	/**
+	 * 停止监听媒体库
+	 */
+	public void release() {
+		if (observedResolver != null) {
+			observedResolver.unregisterContentObserver(observer);
+			observedResolver = null;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.lhdz.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * MetricsListener的注册表。没有监听器时isEnabled()返回false，
+ * 各处据此跳过统计对象的创建。
+ */
+public class Metrics {
+
+	private static final CopyOnWriteArrayList<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+
+	private Metrics() {
+	}
+
+	public static void addListener(MetricsListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public static void removeListener(MetricsListener listener) {
+		listeners.remove(listener);
+	}
+
+	public static boolean isEnabled() {
+		return !listeners.isEmpty();
+	}
+
+	static void request(TransferMetrics metrics) {
+		for (MetricsListener listener : listeners) {
+			try {
+				listener.onRequest(metrics);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	static void retry(String url, int attempt, Throwable cause) {
+		for (MetricsListener listener : listeners) {
+			try {
+				listener.onRetry(url, attempt, cause);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	static void compression(long nanos, long inputBytes, long outputBytes,
+			int encodes) {
+		for (MetricsListener listener : listeners) {
+			try {
+				listener.onCompression(nanos, inputBytes, outputBytes, encodes);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
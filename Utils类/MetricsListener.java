@@ -0,0 +1,34 @@
+package com.lhdz.util;
+
+/**
+ * 上传相关的统计回调，在执行请求或压缩的线程中调用，实现中不要做耗时操作。
+ * 通过Metrics.addListener()注册。
+ */
+public interface MetricsListener {
+
+	/**
+	 * 每个HTTP请求结束时调用，成功或失败都会调用
+	 */
+	void onRequest(TransferMetrics metrics);
+
+	/**
+	 * 请求失败准备重试时调用
+	 * 
+	 * @param attempt
+	 *            即将进行的是第几次重试，从1开始
+	 */
+	void onRetry(String url, int attempt, Throwable cause);
+
+	/**
+	 * JPEG压缩完成时调用
+	 * 
+	 * @param inputBytes
+	 *            原始像素占用的字节数
+	 * @param outputBytes
+	 *            压缩后的字节数
+	 * @param encodes
+	 *            编码次数
+	 */
+	void onCompression(long nanos, long inputBytes, long outputBytes,
+			int encodes);
+}
@@ -0,0 +1,243 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * multipart/form-data 请求体。添加时就确定每一部分的字节数，
+ * 写出前可以算出完整的Content-Length，文件内容直接从FileChannel流式写出，
+ * 不在内存中缓存整个文件。
+ * 包含长度未知的流时，getContentLength()返回-1，需要用分块传输。
+ */
+public class MultipartBody {
+
+	private static final String CRLF = "\r\n";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * 每个线程复用一个direct buffer读取文件，以及写入OutputStream用的数组
+	 */
+	private static class Buffers {
+		final ByteBuffer direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		final byte[] chunk = new byte[BUFFER_SIZE];
+	}
+
+	private static final ThreadLocal<Buffers> thread_local_buffers = new ThreadLocal<Buffers>() {
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	private final String boundary;
+	private final List<Part> parts = new ArrayList<Part>();
+
+	private static class Part {
+		byte[] header;
+		byte[] content;
+		File file;
+		long fileOffset;
+		long fileLength;
+		InputStream stream;
+
+		long length() {
+			if (stream != null) {
+				return -1;
+			}
+			return header.length
+					+ (file != null ? fileLength : content.length)
+					+ CRLF.length();
+		}
+	}
+
+	public MultipartBody() {
+		this(generateBoundary());
+	}
+
+	public MultipartBody(String boundary) {
+		this.boundary = boundary;
+	}
+
+	private static String generateBoundary() {
+		return "----MultipartBoundary"
+				+ Long.toHexString(new Random().nextLong())
+				+ Long.toHexString(System.currentTimeMillis());
+	}
+
+	/**
+	 * 添加普通表单字段
+	 */
+	public MultipartBody addFormField(String name, String value) {
+		Part part = new Part();
+		part.header = toBytes("--" + boundary + CRLF
+				+ "Content-Disposition: form-data; name=\"" + name + "\""
+				+ CRLF + CRLF);
+		part.content = toBytes(value);
+		parts.add(part);
+		return this;
+	}
+
+	/**
+	 * 添加文件，Content-Type按扩展名推断
+	 */
+	public MultipartBody addFile(String name, File file) {
+		return addFile(name, file, guessContentType(file.getName()));
+	}
+
+	public MultipartBody addFile(String name, File file, String contentType) {
+		return addFileRange(name, file, 0, file.length(), contentType);
+	}
+
+	/**
+	 * 只添加文件中从offset开始的length个字节，用于分块上传
+	 */
+	public MultipartBody addFileRange(String name, File file, long offset,
+			long length, String contentType) {
+		Part part = new Part();
+		part.header = toBytes("--" + boundary + CRLF
+				+ "Content-Disposition: form-data; name=\"" + name
+				+ "\"; filename=\"" + file.getName() + "\"" + CRLF
+				+ "Content-Type: " + contentType + CRLF + CRLF);
+		part.file = file;
+		part.fileOffset = offset;
+		part.fileLength = length;
+		parts.add(part);
+		return this;
+	}
+
+	/**
+	 * 添加长度未知的数据流，例如边编码边上传的图片。写出时读到流结束并关闭流
+	 */
+	public MultipartBody addStream(String name, String filename,
+			String contentType, InputStream stream) {
+		Part part = new Part();
+		part.header = toBytes("--" + boundary + CRLF
+				+ "Content-Disposition: form-data; name=\"" + name
+				+ "\"; filename=\"" + filename + "\"" + CRLF
+				+ "Content-Type: " + contentType + CRLF + CRLF);
+		part.stream = stream;
+		parts.add(part);
+		return this;
+	}
+
+	public String getContentType() {
+		return "multipart/form-data; boundary=" + boundary;
+	}
+
+	public String getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * 请求体总字节数，包含长度未知的流时返回-1
+	 */
+	public long getContentLength() {
+		long length = 0;
+		for (Part part : parts) {
+			long partLength = part.length();
+			if (partLength < 0) {
+				return -1;
+			}
+			length += partLength;
+		}
+		return length + closeDelimiter().length;
+	}
+
+	/**
+	 * 写出整个请求体。文件在添加后被修改导致长度变化时抛出IOException，
+	 * 避免和已经声明的Content-Length不一致。
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		byte[] crlf = toBytes(CRLF);
+		for (Part part : parts) {
+			out.write(part.header);
+			if (part.stream != null) {
+				writeStream(part.stream, out);
+			} else if (part.file != null) {
+				writeFile(part.file, part.fileOffset, part.fileLength, out);
+			} else {
+				out.write(part.content);
+			}
+			out.write(crlf);
+		}
+		out.write(closeDelimiter());
+		out.flush();
+	}
+
+	private static void writeFile(File file, long offset, long length,
+			OutputStream out) throws IOException {
+		Buffers buffers = thread_local_buffers.get();
+		ByteBuffer buffer = buffers.direct;
+		byte[] chunk = buffers.chunk;
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			channel.position(offset);
+			long remaining = length;
+			while (remaining > 0) {
+				buffer.clear();
+				if (remaining < buffer.capacity()) {
+					buffer.limit((int) remaining);
+				}
+				int n = channel.read(buffer);
+				if (n < 0) {
+					throw new IOException("file changed while uploading: "
+							+ file);
+				}
+				buffer.flip();
+				buffer.get(chunk, 0, n);
+				out.write(chunk, 0, n);
+				remaining -= n;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeStream(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] chunk = thread_local_buffers.get().chunk;
+		try {
+			int n;
+			while ((n = in.read(chunk)) != -1) {
+				out.write(chunk, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private byte[] closeDelimiter() {
+		return toBytes("--" + boundary + "--" + CRLF);
+	}
+
+	static String guessContentType(String filename) {
+		String name = filename.toLowerCase();
+		if (name.endsWith(".png")) {
+			return "image/png";
+		} else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+			return "image/jpeg";
+		} else if (name.endsWith(".gif")) {
+			return "image/gif";
+		} else if (name.endsWith(".bmp")) {
+			return "image/bmp";
+		}
+		return "application/octet-stream";
+	}
+
+	private static byte[] toBytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package com.lhdz.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+/**
+ * 流式multipart上传。先算出Content-Length并设置定长流模式，
+ * 长度未知时使用分块传输，HttpURLConnection不会把整个请求体缓存在内存中。
+ */
+public class MultipartUploader {
+
+	public static final int CONNECT_TIMEOUT = HttpConnector.DEFAULT_CONNECT_TIMEOUT;
+	public static final int READ_TIMEOUT = HttpConnector.DEFAULT_READ_TIMEOUT;
+	public static final int CHUNK_LENGTH = 32 * 1024;
+	/**
+	 * 响应内容最多保留的字符数，超出部分丢弃
+	 */
+	public static final int MAX_RESPONSE_CHARS = 64 * 1024;
+
+	/**
+	 * 从其他线程取消一次上传。HttpURLConnection的读写不响应线程中断，
+	 * cancel()直接断开正在使用的连接，阻塞在读写上的上传线程随即抛出IOException；
+	 * 写请求体时每写一块也检查一次，已取消时抛出InterruptedIOException。
+	 */
+	public static class Cancellation {
+		private volatile boolean cancelled;
+		private HttpURLConnection conn;
+
+		public void cancel() {
+			HttpURLConnection active;
+			synchronized (this) {
+				cancelled = true;
+				active = conn;
+				conn = null;
+			}
+			if (active != null) {
+				active.disconnect();
+			}
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * 记录正在使用的连接，已取消时返回false
+		 */
+		synchronized boolean attach(HttpURLConnection conn) {
+			if (cancelled) {
+				return false;
+			}
+			this.conn = conn;
+			return true;
+		}
+
+		synchronized void detach() {
+			conn = null;
+		}
+
+		void check() throws InterruptedIOException {
+			if (cancelled) {
+				throw new InterruptedIOException("upload cancelled");
+			}
+		}
+	}
+
+	/**
+	 * 上传请求体，返回响应内容(去掉空行、每行trim后拼接)。
+	 * 响应码不是200时抛出HttpResponseException。
+	 * 
+	 * 成功时读完并关闭响应流而不调用disconnect()，连接回到keep-alive池中，
+	 * 下一次请求同一主机时可以复用；出错时才断开连接。
+	 * 连接由HttpConnector.getDefault()打开，超时、请求头和每主机连接数以它为准。
+	 * 注册了MetricsListener时，请求结束后报告各阶段耗时和流量。
+	 */
+	public static String upload(String urlStr, MultipartBody body)
+			throws IOException {
+		return upload(urlStr, body, null);
+	}
+
+	/**
+	 * 同upload(String, MultipartBody)，cancellation不为null时可以从其他线程取消
+	 */
+	public static String upload(String urlStr, MultipartBody body,
+			Cancellation cancellation) throws IOException {
+		long start = System.nanoTime();
+		long connected = 0;
+		long written = 0;
+		long firstByte = 0;
+		int code = -1;
+		CountingOutputStream out = null;
+		CountingInputStream in = null;
+		Throwable error = null;
+		HttpConnector.Connection connection = HttpConnector.getDefault().open(
+				urlStr, "POST");
+		HttpURLConnection conn = connection.get();
+		boolean reusable = false;
+		try {
+			if (cancellation != null && !cancellation.attach(conn)) {
+				throw new InterruptedIOException("upload cancelled");
+			}
+			conn.setDoOutput(true);
+			conn.setDoInput(true);
+			conn.setUseCaches(false);
+			conn.setRequestProperty("Charset", "UTF-8");
+			conn.setRequestProperty("Content-Type", body.getContentType());
+			long length = body.getContentLength();
+			if (length >= 0) {
+				setFixedLength(conn, length);
+			} else {
+				conn.setChunkedStreamingMode(CHUNK_LENGTH);
+			}
+
+			// 单独建连，区分建连和写请求体的耗时
+			conn.connect();
+			connected = System.nanoTime();
+			out = new CountingOutputStream(conn.getOutputStream(),
+					cancellation);
+			try {
+				body.writeTo(out);
+			} finally {
+				out.close();
+			}
+			written = System.nanoTime();
+
+			code = conn.getResponseCode();
+			firstByte = System.nanoTime();
+			if (code != HttpURLConnection.HTTP_OK) {
+				discard(conn.getErrorStream());
+				reusable = true;
+				throw new HttpResponseException(code);
+			}
+			in = new CountingInputStream(conn.getInputStream());
+			try {
+				String result = readResponse(in, MAX_RESPONSE_CHARS);
+				reusable = true;
+				return result;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			error = e;
+			throw e;
+		} catch (RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			if (cancellation != null) {
+				cancellation.detach();
+			}
+			connection.close(reusable);
+			if (Metrics.isEnabled()) {
+				long[] phases = phases(start, connected, written, firstByte,
+						System.nanoTime());
+				Metrics.request(new TransferMetrics(urlStr, "POST", code,
+						phases[0], phases[1], phases[2], phases[3],
+						out != null ? out.count : 0, in != null ? in.count : 0,
+						error));
+			}
+		}
+	}
+
+	/**
+	 * 各阶段耗时。某个阶段没有完成时，从该阶段开始到结束的时间都算在该阶段，之后的阶段为0
+	 */
+	private static long[] phases(long start, long connected, long written,
+			long firstByte, long end) {
+		long[] marks = { start, connected, written, firstByte, end };
+		long[] phases = new long[4];
+		for (int i = 0; i < phases.length; i++) {
+			if (marks[i + 1] == 0) {
+				phases[i] = end - marks[i];
+				break;
+			}
+			phases[i] = marks[i + 1] - marks[i];
+		}
+		return phases;
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		private final Cancellation cancellation;
+		long count;
+
+		CountingOutputStream(OutputStream out, Cancellation cancellation) {
+			super(out);
+			this.cancellation = cancellation;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * 读完并关闭错误响应，连接才能被复用
+	 */
+	static void discard(InputStream in) throws IOException {
+		if (in == null) {
+			return;
+		}
+		try {
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) != -1) {
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.KITKAT)
+	static void setFixedLength(HttpURLConnection conn, long length) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			conn.setFixedLengthStreamingMode(length);
+		} else if (length <= Integer.MAX_VALUE) {
+			conn.setFixedLengthStreamingMode((int) length);
+		} else {
+			conn.setChunkedStreamingMode(0);
+		}
+	}
+
+	/**
+	 * 读取响应：去掉空行，每行trim后直接拼接，最多保留maxChars个字符。
+	 * 超出部分仍然读完，保证连接可以被复用。
+	 */
+	static String readResponse(InputStream in, int maxChars)
+			throws IOException {
+		Reader reader = new InputStreamReader(in, "UTF-8");
+		StringBuilder result = new StringBuilder();
+		StringBuilder line = new StringBuilder();
+		char[] buffer = new char[4096];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			for (int i = 0; i < n; i++) {
+				char c = buffer[i];
+				if (c == '\n' || c == '\r') {
+					appendLine(result, line, maxChars);
+				} else if (line.length() < maxChars) {
+					line.append(c);
+				}
+			}
+		}
+		appendLine(result, line, maxChars);
+		return result.toString();
+	}
+
+	private static void appendLine(StringBuilder result, StringBuilder line,
+			int maxChars) {
+		String trimmed = line.toString().trim();
+		line.setLength(0);
+		int room = maxChars - result.length();
+		if (room > 0 && trimmed.length() > 0) {
+			result.append(trimmed, 0, Math.min(room, trimmed.length()));
+		}
+	}
+}
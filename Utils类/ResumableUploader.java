@@ -0,0 +1,247 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * 断点续传的分块上传。文件按固定大小分块，每块单独一个multipart请求，
+ * 失败的块按指数退避(带随机抖动)重试；已完成的块记录在本地日志文件中，
+ * 进程重启后再次上传同一文件时跳过已完成的块。
+ *
+ * 每个请求包含以下字段，服务器按uploadId和offset拼接：
+ * uploadId, fileName, totalSize, chunkIndex, chunkCount, offset,
+ * checksum(CRC32十六进制)，以及名为file的分块数据。
+ */
+public class ResumableUploader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+	public static final int DEFAULT_MAX_RETRIES = 5;
+	public static final long DEFAULT_BASE_BACKOFF_MS = 500;
+	public static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+
+	private final File journalDir;
+	private final int chunkSize;
+	private final int maxRetries;
+	private final long baseBackoffMs;
+	private final long maxBackoffMs;
+	private final Random random = new Random();
+
+	/**
+	 * @param journalDir
+	 *            保存上传进度的目录
+	 */
+	public ResumableUploader(File journalDir) {
+		this(journalDir, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_RETRIES,
+				DEFAULT_BASE_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+	}
+
+	public ResumableUploader(File journalDir, int chunkSize, int maxRetries,
+			long baseBackoffMs, long maxBackoffMs) {
+		this.journalDir = journalDir;
+		this.chunkSize = chunkSize;
+		this.maxRetries = maxRetries;
+		this.baseBackoffMs = baseBackoffMs;
+		this.maxBackoffMs = maxBackoffMs;
+	}
+
+	/**
+	 * 上传文件，返回最后一块的服务器响应。
+	 * 某一块重试用完仍失败时抛出最后一次的异常，进度保留在日志中。
+	 */
+	public String upload(String url, String filePath) throws IOException {
+		File file = new File(filePath);
+		long total = file.length();
+		int chunkCount = (int) Math.max(1, (total + chunkSize - 1) / chunkSize);
+		String uploadId = uploadId(url, file);
+		File journal = new File(journalDir, uploadId + ".journal");
+		BitSet done = readJournal(journal, chunkCount);
+
+		String response = "";
+		OutputStream journalOut = null;
+		try {
+			for (int index = 0; index < chunkCount; index++) {
+				if (done.get(index)) {
+					continue;
+				}
+				if (journalOut == null) {
+					journalOut = openJournal(journal);
+				}
+				long offset = (long) index * chunkSize;
+				long length = Math.min(chunkSize, total - offset);
+				response = uploadChunk(url, file, uploadId, index, chunkCount,
+						offset, length);
+				journalOut.write((index + "\n").getBytes("UTF-8"));
+				journalOut.flush();
+			}
+		} finally {
+			if (journalOut != null) {
+				journalOut.close();
+			}
+		}
+		journal.delete();
+		return response;
+	}
+
+	private String uploadChunk(String url, File file, String uploadId,
+			int index, int chunkCount, long offset, long length)
+			throws IOException {
+		String checksum = Long.toHexString(crc32(file, offset, length));
+		for (int attempt = 0;; attempt++) {
+			MultipartBody body = new MultipartBody()
+					.addFormField("uploadId", uploadId)
+					.addFormField("fileName", file.getName())
+					.addFormField("totalSize", String.valueOf(file.length()))
+					.addFormField("chunkIndex", String.valueOf(index))
+					.addFormField("chunkCount", String.valueOf(chunkCount))
+					.addFormField("offset", String.valueOf(offset))
+					.addFormField("checksum", checksum)
+					.addFileRange("file", file, offset, length,
+							"application/octet-stream");
+			try {
+				return MultipartUploader.upload(url, body);
+			} catch (IOException e) {
+				if (attempt >= maxRetries || !isRetryable(e)) {
+					throw e;
+				}
+				if (Metrics.isEnabled()) {
+					Metrics.retry(url, attempt + 1, e);
+				}
+			}
+			sleep(backoff(attempt));
+		}
+	}
+
+	/**
+	 * 4xx(408、429除外)说明请求本身有问题，重试没有意义
+	 */
+	private static boolean isRetryable(IOException e) {
+		if (e instanceof HttpResponseException) {
+			int code = ((HttpResponseException) e).getResponseCode();
+			return code >= 500 || code == 408 || code == 429;
+		}
+		return true;
+	}
+
+	/**
+	 * 指数退避，在[0, min(max, base * 2^attempt)]内随机取值
+	 */
+	private long backoff(int attempt) {
+		long ceiling = baseBackoffMs << Math.min(attempt, 20);
+		if (ceiling <= 0 || ceiling > maxBackoffMs) {
+			ceiling = maxBackoffMs;
+		}
+		synchronized (random) {
+			return (long) (random.nextDouble() * ceiling);
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("upload interrupted");
+		}
+	}
+
+	private static long crc32(File file, long offset, long length)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		ByteBuffer buffer = ByteBuffer.wrap(chunk);
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(chunk.length, end - position));
+				int n = channel.read(buffer, position);
+				if (n < 0) {
+					throw new IOException("file changed while uploading: "
+							+ file);
+				}
+				crc.update(chunk, 0, n);
+				position += n;
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * 同一文件(路径、大小、修改时间)上传到同一地址时得到同一个id
+	 */
+	private String uploadId(String url, File file) {
+		CRC32 crc = new CRC32();
+		try {
+			crc.update((url + "|" + file.getAbsolutePath() + "|"
+					+ file.length() + "|" + file.lastModified() + "|"
+					+ chunkSize).getBytes("UTF-8"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return Long.toHexString(crc.getValue())
+				+ Long.toHexString(file.lastModified());
+	}
+
+	/**
+	 * 日志文件每行是一个已完成的块序号。最后一行没有换行符时说明写到一半
+	 * 进程被杀了，忽略这一行。
+	 */
+	private static BitSet readJournal(File journal, int chunkCount) {
+		BitSet done = new BitSet(chunkCount);
+		if (!journal.exists()) {
+			return done;
+		}
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(journal);
+			byte[] buffer = new byte[4096];
+			int value = -1;
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				for (int i = 0; i < n; i++) {
+					byte b = buffer[i];
+					if (b >= '0' && b <= '9') {
+						value = (value < 0 ? 0 : value * 10) + (b - '0');
+					} else if (b == '\n') {
+						if (value >= 0 && value < chunkCount) {
+							done.set(value);
+						}
+						value = -1;
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (in != null) {
+					in.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return done;
+	}
+
+	private OutputStream openJournal(File journal) throws IOException {
+		if (!journalDir.exists()) {
+			journalDir.mkdirs();
+		}
+		return new FileOutputStream(journal, true);
+	}
+}
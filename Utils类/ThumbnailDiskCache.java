@@ -0,0 +1,127 @@
+package com.lhdz.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * 缩略图磁盘缓存。原图按尺寸档位缩小后保存为JPEG，下次显示时直接解码小文件。
+ *
+ * 索引、LRU淘汰和原子写入由DiskLruIndex完成：启动时只读journal，不遍历目录；
+ * 条目先写临时文件再rename；总大小超过上限时淘汰最久未用的条目。
+ */
+public class ThumbnailDiskCache {
+
+	/**
+	 * 尺寸档位，缩略图最小边不小于所在档位
+	 */
+	private static final int[] SIZE_BUCKETS = { 160, 320, 480, 640, 960, 1280 };
+	public static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+	private static final int QUALITY = 90;
+
+	private final DiskLruIndex index;
+
+	public ThumbnailDiskCache(File directory, long maxBytes) {
+		index = new DiskLruIndex(directory, maxBytes, "ThumbnailDiskCache 1",
+				".jpg");
+	}
+
+	/**
+	 * 使用应用缓存目录下的thumbnails目录
+	 */
+	public static ThumbnailDiskCache open(Context context) {
+		return new ThumbnailDiskCache(new File(context.getCacheDir(),
+				"thumbnails"), DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * 目标尺寸所在的档位，超过最大档位返回-1(不缓存)
+	 */
+	public static int sizeBucket(int targetSize) {
+		for (int bucket : SIZE_BUCKETS) {
+			if (targetSize <= bucket) {
+				return bucket;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 返回可以代替原图解码的文件路径：已有缩略图时直接返回；没有时用原图生成
+	 * 缩略图再返回；目标尺寸过大或生成失败时返回原图路径。
+	 */
+	public String getDecodePath(String sourcePath, int targetSize) {
+		File source = new File(sourcePath);
+		long lastModified = source.lastModified();
+		int bucket = sizeBucket(targetSize);
+		if (bucket < 0 || lastModified == 0) {
+			return sourcePath;
+		}
+		String key = key(sourcePath, lastModified, bucket);
+		File cached = index.get(key);
+		if (cached != null) {
+			return cached.getPath();
+		}
+		File created = create(key, sourcePath, bucket);
+		return created != null ? created.getPath() : sourcePath;
+	}
+
+	private File create(String key, String sourcePath, int bucket) {
+		DecodePlanner.Plan plan = DecodePlanner.plan(sourcePath, bucket, bucket,
+				true);
+		if (Math.min(plan.srcWidth, plan.srcHeight) <= bucket) {
+			// 原图已经不大于档位，缩略图没有意义
+			return null;
+		}
+		Bitmap bitmap = BitmapPool.getDefault().decodeFile(sourcePath, plan);
+		if (bitmap == null) {
+			return null;
+		}
+		File tmp = index.newTempFile(key);
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			if (!bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, out)) {
+				throw new IOException("compress failed");
+			}
+			out.close();
+			out = null;
+			return index.commit(key, tmp, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+			tmp.delete();
+			return null;
+		} finally {
+			BitmapPool.getDefault().put(bitmap);
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public long size() {
+		return index.size();
+	}
+
+	public int count() {
+		return index.count();
+	}
+
+	/**
+	 * 删除所有缩略图
+	 */
+	public void clear() {
+		index.clear();
+	}
+
+	private static String key(String sourcePath, long lastModified, int bucket) {
+		return bucket + ":" + lastModified + ":" + sourcePath;
+	}
+}
@@ -0,0 +1,56 @@
+package com.lhdz.util;
+
+/**
+ * 一次HTTP请求的耗时和流量。未执行到的阶段耗时为0。
+ */
+public final class TransferMetrics {
+
+	public final String url;
+	public final String method;
+	/** 响应码，没有收到响应时为-1 */
+	public final int responseCode;
+	/** DNS解析、TCP/TLS建连，HttpURLConnection无法分开统计 */
+	public final long connectNanos;
+	/** 写请求体 */
+	public final long writeNanos;
+	/** 请求体写完到收到响应头(首字节) */
+	public final long firstByteNanos;
+	/** 读响应体 */
+	public final long readNanos;
+	public final long bytesSent;
+	public final long bytesReceived;
+	/** 失败原因，成功时为null */
+	public final Throwable error;
+
+	TransferMetrics(String url, String method, int responseCode,
+			long connectNanos, long writeNanos, long firstByteNanos,
+			long readNanos, long bytesSent, long bytesReceived, Throwable error) {
+		this.url = url;
+		this.method = method;
+		this.responseCode = responseCode;
+		this.connectNanos = connectNanos;
+		this.writeNanos = writeNanos;
+		this.firstByteNanos = firstByteNanos;
+		this.readNanos = readNanos;
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		this.error = error;
+	}
+
+	public long totalNanos() {
+		return connectNanos + writeNanos + firstByteNanos + readNanos;
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url + " -> " + responseCode + " connect="
+				+ connectNanos / 1000 + "us write=" + writeNanos / 1000
+				+ "us ttfb=" + firstByteNanos / 1000 + "us read="
+				+ readNanos / 1000 + "us sent=" + bytesSent + " received="
+				+ bytesReceived + (error != null ? " error=" + error : "");
+	}
+}
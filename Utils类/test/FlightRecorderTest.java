@@ -0,0 +1,168 @@
+package com.finddreams.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.util.Log;
+
+public class FlightRecorderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("flight", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void dumpIsReadable() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(64, dir);
+        recorder.record(Log.DEBUG, "Tag", "first", null);
+        recorder.record(Log.ERROR, "Tag", "second", null);
+        StringWriter out = new StringWriter();
+        recorder.dump(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith("D/Tag [" + Thread.currentThread().getName()
+                + "] first"));
+        assertTrue(lines[1].endsWith("] second"));
+    }
+
+    @Test
+    public void dumpAsyncWritesInBackground() throws Exception {
+        FlightRecorder recorder = new FlightRecorder(64, dir);
+        recorder.record(Log.ASSERT, "Tag", "broken", null);
+        assertTrue(recorder.dumpAsync("wtf: Tag"));
+        // 间隔内的dump被跳过
+        assertFalse(recorder.dumpAsync("wtf: Tag"));
+
+        File file = awaitDump();
+        assertNotNull(file);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            assertEquals("# wtf: Tag", reader.readLine());
+            assertTrue(reader.readLine().endsWith("A/Tag ["
+                    + Thread.currentThread().getName() + "] broken"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void wtfDumpsFlightRecorder() throws Exception {
+        LogUtils.customLogger = new LogUtilsBenchmark.NoopLogger();
+        LogUtils.getFlightRecorder().setDumpDir(dir);
+        try {
+            LogUtils.tag("FlightRecorderTest").wtf("wtf from test");
+            assertNotNull(awaitDump());
+        } finally {
+            LogUtils.customLogger = null;
+        }
+    }
+
+    /**
+     * 不打印的日志也在缓冲区里，dump时才格式化
+     */
+    @Test
+    public void recordsDisabledLevels() throws IOException {
+        final List<String> printed = new ArrayList<String>();
+        LogUtils.customLogger = new LogUtilsBenchmark.NoopLogger() {
+            @Override
+            public void d(String tag, String content) {
+                printed.add(content);
+            }
+        };
+        FlightRecorder recorder = LogUtils.getFlightRecorder();
+        recorder.clear();
+        LogUtils.allowD = false;
+        try {
+            LogUtils.d("hidden {}", 42);
+            LogUtils.tag("Net").d("hidden by switch");
+            LogUtils.allowD = true;
+            LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                    .build());
+            LogUtils.d("hidden by filter");
+            LogUtils.setLevelFilter(null);
+            LogUtils.d("printed");
+        } finally {
+            LogUtils.allowD = true;
+            LogUtils.setLevelFilter(null);
+            LogUtils.customLogger = null;
+        }
+        assertEquals(1, printed.size());
+
+        StringWriter out = new StringWriter();
+        recorder.dump(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].endsWith("D/" + FlightRecorder.UNRESOLVED_TAG
+                + " [" + Thread.currentThread().getName() + "] hidden 42"));
+        assertTrue(lines[1].endsWith("D/Net [" + Thread.currentThread().getName()
+                + "] hidden by switch"));
+        assertTrue(lines[2].endsWith("] hidden by filter"));
+        // 打印出来的日志带上解析出的tag
+        assertTrue(lines[3].contains("FlightRecorderTest.recordsDisabledLevels"));
+        assertTrue(lines[3].endsWith("] printed"));
+    }
+
+    @Test
+    public void brokenArgumentDoesNotStopDump() throws IOException {
+        FlightRecorder recorder = new FlightRecorder(64, dir);
+        recorder.record(Log.DEBUG, "Tag", "value {}", 1, new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken");
+            }
+        }, null, null, null);
+        recorder.record(Log.DEBUG, "Tag", "after", null);
+        StringWriter out = new StringWriter();
+        recorder.dump(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith(
+                "] <java.lang.IllegalStateException: broken>"));
+        assertTrue(lines[1].endsWith("] after"));
+    }
+
+    private File awaitDump() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            File[] files = dir.listFiles();
+            if (files != null && files.length > 0 && files[0].length() > 0) {
+                // 等后台线程写完
+                Thread.sleep(50);
+                return files[0];
+            }
+            Thread.sleep(20);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.lhdz.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 每主机连接数的名额在各种关闭方式下都归还，并且只归还一次
+ */
+public class HttpConnectorTest {
+
+	private HttpServer server;
+	private String url;
+	private HttpConnector connector;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 2);
+				OutputStream out = exchange.getResponseBody();
+				out.write(new byte[] { 'o', 'k' });
+				out.close();
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+		connector = new HttpConnector.Builder().maxConnectionsPerHost(1)
+				.readTimeout(200).build();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void waitsForPermit() throws IOException {
+		connector.open(url, "GET");
+		connector.open(url, "GET");
+	}
+
+	@Test
+	public void streamCloseReleasesPermit() throws IOException {
+		HttpConnector.Connection connection = connector.open(url, "GET");
+		MultipartUploader.discard(connection.getInputStream());
+		// 流关闭后再close()不会多归还一个名额
+		connection.close(true);
+		connector.open(url, "GET");
+		try {
+			connector.open(url, "GET");
+		} catch (SocketTimeoutException e) {
+			return;
+		}
+		throw new AssertionError("permit released twice");
+	}
+
+	@Test
+	public void failedOpenReleasesPermit() throws IOException {
+		try {
+			connector.open(url, "BREW");
+		} catch (IOException e) {
+			// setRequestMethod拒绝未知方法
+		}
+		connector.open(url, "GET").close(false);
+	}
+
+	@Test
+	public void unlimitedByDefault() throws IOException {
+		HttpConnector unlimited = new HttpConnector.Builder().build();
+		assertEquals(0, unlimited.getMaxConnectionsPerHost());
+		for (int i = 0; i < 10; i++) {
+			unlimited.open(url, "GET");
+		}
+	}
+}
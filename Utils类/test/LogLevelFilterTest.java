@@ -0,0 +1,150 @@
+package com.finddreams.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.util.Log;
+
+/**
+ * 阈值的优先级：tag > 精确类名 > 最长包名前缀 > 默认
+ */
+public class LogLevelFilterTest {
+
+    private final List<String> tags = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        LogUtils.customLogger = new LogUtilsBenchmark.NoopLogger() {
+            @Override
+            public void d(String tag, String content) {
+                tags.add(tag);
+            }
+        };
+        LogUtils.setRateLimiter(null);
+    }
+
+    @After
+    public void tearDown() {
+        LogUtils.customLogger = null;
+        LogUtils.setLevelFilter(null);
+    }
+
+    @Test
+    public void tagBeatsClass() {
+        LogLevelFilter filter = new LogLevelFilter.Builder(Log.INFO)
+                .tag("Upload", Log.ERROR)
+                .className("com.lhdz.util.BatchUploader", Log.VERBOSE)
+                .build();
+        assertEquals(Log.ERROR,
+                filter.levelFor("Upload", "com.lhdz.util.BatchUploader"));
+        assertEquals(Log.VERBOSE,
+                filter.levelFor("Other", "com.lhdz.util.BatchUploader"));
+    }
+
+    @Test
+    public void classBeatsPackage() {
+        LogLevelFilter filter = new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com.lhdz.util", Log.VERBOSE)
+                .className("com.lhdz.util.HttpCache", Log.WARN).build();
+        assertEquals(Log.WARN, filter.levelForClass("com.lhdz.util.HttpCache"));
+        assertEquals(Log.WARN,
+                filter.levelForClass("com.lhdz.util.HttpCache$Entry"));
+        assertEquals(Log.VERBOSE,
+                filter.levelForClass("com.lhdz.util.Downloader"));
+    }
+
+    @Test
+    public void longestPackageWins() {
+        LogLevelFilter filter = new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com", Log.ERROR)
+                .packagePrefix("com.lhdz.util", Log.DEBUG).build();
+        assertEquals(Log.DEBUG, filter.levelForClass("com.lhdz.util.Metrics"));
+        assertEquals(Log.DEBUG,
+                filter.levelForClass("com.lhdz.util.sub.Metrics"));
+        assertEquals(Log.ERROR, filter.levelForClass("com.lhdz.Other"));
+        // 前缀按包名整段匹配
+        assertEquals(Log.ERROR, filter.levelForClass("com.lhdz.utility.Other"));
+    }
+
+    @Test
+    public void packageBeatsDefault() {
+        LogLevelFilter filter = new LogLevelFilter.Builder(Log.WARN)
+                .packagePrefix("com.lhdz", Log.DEBUG).build();
+        assertEquals(Log.DEBUG, filter.levelForClass("com.lhdz.util.Metrics"));
+        assertEquals(Log.WARN, filter.levelForClass("org.example.Main"));
+        assertEquals(Log.WARN, filter.levelFor("Upload", null));
+    }
+
+    @Test
+    public void parseKeepsPrecedence() {
+        LogLevelFilter filter = LogLevelFilter
+                .parse("*=I, com.lhdz.util.*=D, com.lhdz.util.HttpCache=V, tag:Upload=W");
+        assertEquals(Log.INFO, filter.getDefaultLevel());
+        assertEquals(Log.VERBOSE, filter.getMinLevel());
+        assertEquals(Log.WARN,
+                filter.levelFor("Upload", "com.lhdz.util.HttpCache"));
+        assertEquals(Log.VERBOSE, filter.levelForClass("com.lhdz.util.HttpCache"));
+        assertEquals(Log.DEBUG, filter.levelForClass("com.lhdz.util.Downloader"));
+        assertEquals(Log.INFO, filter.levelForClass("org.example.Main"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsBadLevel() {
+        LogLevelFilter.parse("*=LOUD");
+    }
+
+    @Test
+    public void minClassLevelIgnoresTagRules() {
+        LogLevelFilter filter = new LogLevelFilter.Builder(Log.WARN)
+                .tag("Upload", Log.VERBOSE)
+                .packagePrefix("com.lhdz", Log.DEBUG).build();
+        assertEquals(Log.DEBUG, filter.getMinClassLevel());
+        assertEquals(Log.VERBOSE, filter.getMinLevel());
+    }
+
+    @Test
+    public void autoTagUsesCallerClass() {
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                .className(LogLevelFilterTest.class.getName(), Log.DEBUG)
+                .build());
+        LogUtils.d("enabled by class rule");
+        assertEquals(1, tags.size());
+        assertTrue(tags.get(0).contains("LogLevelFilterTest.autoTagUsesCallerClass"));
+
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.DEBUG)
+                .packagePrefix("com.finddreams", Log.INFO).build());
+        LogUtils.d("disabled by package rule");
+        assertEquals(1, tags.size());
+    }
+
+    @Test
+    public void tagLoggerFollowsFilterChanges() {
+        LogUtils.TagLogger classLogger = LogUtils.tag(LogLevelFilterTest.class);
+        LogUtils.TagLogger tagLogger = LogUtils.tag("Upload");
+        assertTrue(classLogger.isLoggable(Log.DEBUG));
+
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com.finddreams", Log.WARN)
+                .tag("LogLevelFilterTest", Log.VERBOSE).build());
+        // tag(Class)的tag是类名，tag规则优先于包名规则
+        assertTrue(classLogger.isLoggable(Log.VERBOSE));
+        assertFalse(tagLogger.isLoggable(Log.DEBUG));
+        assertTrue(tagLogger.isLoggable(Log.INFO));
+
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com.finddreams", Log.WARN).build());
+        assertFalse(classLogger.isLoggable(Log.INFO));
+        assertTrue(classLogger.isLoggable(Log.WARN));
+
+        LogUtils.setLevelFilter(null);
+        assertTrue(classLogger.isLoggable(Log.VERBOSE));
+    }
+}
@@ -0,0 +1,94 @@
+package com.finddreams.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 重复内容合并后的汇总行何时输出
+ */
+public class LogRateLimiterTest {
+
+    private static final long WINDOW_MS = 50;
+
+    private final List<String> lines = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        LogUtils.customLogger = new LogUtilsBenchmark.NoopLogger() {
+            @Override
+            public void d(String tag, String content) {
+                lines.add(tag + " " + content);
+            }
+        };
+        LogUtils.setLevelFilter(null);
+        LogUtils.setRateLimiter(new LogRateLimiter(1000, 1000, WINDOW_MS));
+    }
+
+    @After
+    public void tearDown() {
+        LogUtils.customLogger = null;
+        LogUtils.setRateLimiter(null);
+    }
+
+    @Test
+    public void summaryBeforeNextMessageOnSameSite() {
+        LogUtils.TagLogger log = LogUtils.tag("Site");
+        for (int i = 0; i < 5; i++) {
+            log.d("same");
+        }
+        log.d("different");
+        assertEquals(3, lines.size());
+        assertEquals("Site same", lines.get(0));
+        assertEquals("Site (last message repeated 4 times)", lines.get(1));
+        assertEquals("Site different", lines.get(2));
+    }
+
+    @Test
+    public void expiredSummaryFlushedByOtherSite() throws InterruptedException {
+        LogUtils.TagLogger quiet = LogUtils.tag("Quiet");
+        LogUtils.TagLogger other = LogUtils.tag("Other");
+        for (int i = 0; i < 3; i++) {
+            quiet.d("same");
+        }
+        other.d("inside window");
+        assertEquals(2, lines.size());
+
+        // 窗口结束，且超过flushExpired()的检查间隔
+        Thread.sleep(WINDOW_MS + 200);
+        other.d("after window");
+        assertEquals(4, lines.size());
+        assertEquals("Quiet (last message repeated 2 times)", lines.get(2));
+        assertEquals("Other after window", lines.get(3));
+
+        // 已经报告过的次数不再重复报告
+        quiet.d("same");
+        assertEquals(5, lines.size());
+        assertEquals("Quiet same", lines.get(4));
+    }
+
+    @Test
+    public void suppressedSummaryFlushedAfterStormStops()
+            throws InterruptedException {
+        // 每秒10条，最多连续2条
+        LogUtils.setRateLimiter(new LogRateLimiter(10, 2, WINDOW_MS));
+        LogUtils.TagLogger storm = LogUtils.tag("Storm");
+        LogUtils.TagLogger other = LogUtils.tag("Other");
+        for (int i = 0; i < 10; i++) {
+            storm.d("message " + i);
+        }
+        assertEquals(2, lines.size());
+
+        // 令牌桶恢复后，其他位置的下一条日志补上被丢弃的条数
+        Thread.sleep(500);
+        other.d("later");
+        assertEquals(4, lines.size());
+        assertEquals("Storm (suppressed 8 messages)", lines.get(2));
+        assertEquals("Other later", lines.get(3));
+    }
+}
@@ -0,0 +1,276 @@
+package com.finddreams.log;
+
+import java.lang.reflect.Method;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * 一次日志调用的耗时和分配，结果输出到System.out。
+ * 对比原来的实现(Thread.getStackTrace() + String.format拼tag)、自动tag(每次解析调用栈)
+ * 与TagLogger(固定tag)，以及级别被过滤时的开销。
+ * 分配字节数只在支持ThreadMXBean.getThreadAllocatedBytes()的JVM上统计，其他环境输出-1。
+ */
+public class LogUtilsBenchmark {
+
+    private static final int WARMUP = 100000;
+    private static final int ITERATIONS = 1000000;
+    private static final int STACK_DEPTH = 50;
+
+    private static final LogUtils.TagLogger LOG = LogUtils
+            .tag(LogUtilsBenchmark.class);
+
+    @Before
+    public void setUp() {
+        LogUtils.customLogger = new NoopLogger();
+        LogUtils.allowFlightRecorder = false;
+        LogUtils.setLevelFilter(null);
+        LogUtils.setRateLimiter(null);
+    }
+
+    @After
+    public void tearDown() {
+        LogUtils.customLogger = null;
+        LogUtils.allowFlightRecorder = true;
+        LogUtils.setLevelFilter(null);
+    }
+
+    /**
+     * 参照：改动前的d(String)，每次调用都取整个调用栈并用String.format拼tag
+     */
+    @Test
+    public void baseline() {
+        measure("baseline", new Runnable() {
+            @Override
+            public void run() {
+                baselineD("message");
+            }
+        });
+    }
+
+    private static void baselineD(String content) {
+        if (!LogUtils.allowD)
+            return;
+        StackTraceElement caller = baselineCaller();
+        String tag = baselineTag(caller);
+        LogUtils.customLogger.d(tag, content);
+    }
+
+    /**
+     * 原来在Dalvik上取[4]，VMStack.getThreadStackTrace多占一帧；JVM上调用者在[3]
+     */
+    private static StackTraceElement baselineCaller() {
+        return Thread.currentThread().getStackTrace()[3];
+    }
+
+    private static String baselineTag(StackTraceElement caller) {
+        String tag = "%s.%s(Line:%d)";
+        String callerClazzName = caller.getClassName();
+        callerClazzName = callerClazzName.substring(callerClazzName
+                .lastIndexOf(".") + 1);
+        tag = String.format(tag, callerClazzName, caller.getMethodName(),
+                caller.getLineNumber());
+        tag = TextUtils.isEmpty(LogUtils.customTagPrefix) ? tag
+                : LogUtils.customTagPrefix + ":" + tag;
+        return tag;
+    }
+
+    @Test
+    public void autoTag() {
+        measure("auto tag", new Runnable() {
+            @Override
+            public void run() {
+                LogUtils.d("message");
+            }
+        });
+    }
+
+    /**
+     * 应用里的调用栈通常有几十帧，取整个调用栈的开销随深度增长
+     */
+    @Test
+    public void baselineDeepStack() {
+        atDepth(STACK_DEPTH, "baseline, deep stack", new Runnable() {
+            @Override
+            public void run() {
+                baselineD("message");
+            }
+        });
+    }
+
+    @Test
+    public void autoTagDeepStack() {
+        atDepth(STACK_DEPTH, "auto tag, deep stack", new Runnable() {
+            @Override
+            public void run() {
+                LogUtils.d("message");
+            }
+        });
+    }
+
+    @Test
+    public void tagLogger() {
+        measure("TagLogger", new Runnable() {
+            @Override
+            public void run() {
+                LOG.d("message");
+            }
+        });
+    }
+
+    @Test
+    public void autoTagFiltered() {
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO).build());
+        measure("auto tag, filtered", new Runnable() {
+            @Override
+            public void run() {
+                LogUtils.d("message");
+            }
+        });
+    }
+
+    @Test
+    public void tagLoggerFiltered() {
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO).build());
+        measure("TagLogger, filtered", new Runnable() {
+            @Override
+            public void run() {
+                LOG.d("message");
+            }
+        });
+    }
+
+    /**
+     * allowD关闭时日志仍然记入FlightRecorder，开销是一个Record
+     */
+    @Test
+    public void disabledRecorded() {
+        LogUtils.allowFlightRecorder = true;
+        LogUtils.allowD = false;
+        try {
+            measure("disabled, recorded", new Runnable() {
+                @Override
+                public void run() {
+                    LogUtils.d("message {}", "value");
+                }
+            });
+        } finally {
+            LogUtils.allowD = true;
+        }
+    }
+
+    /**
+     * 包名规则把别的包降到DEBUG，本类的DEBUG日志仍被过滤，但自动tag要解析调用栈才知道
+     */
+    @Test
+    public void autoTagFilteredByClassRule() {
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com.lhdz.util", Log.DEBUG).build());
+        measure("auto tag, class rule", new Runnable() {
+            @Override
+            public void run() {
+                LogUtils.d("message");
+            }
+        });
+    }
+
+    @Test
+    public void tagLoggerFilteredByClassRule() {
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.INFO)
+                .packagePrefix("com.lhdz.util", Log.DEBUG).build());
+        measure("TagLogger, class rule", new Runnable() {
+            @Override
+            public void run() {
+                LOG.d("message");
+            }
+        });
+    }
+
+    static void measure(String name, Runnable call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = bytes < 0 ? -1 : allocatedBytes() - bytes;
+        System.out.println(String.format("%-24s %10.1f ns/op %10.1f B/op",
+                name, (double) elapsed / ITERATIONS,
+                allocated < 0 ? -1.0 : (double) allocated / ITERATIONS));
+    }
+
+    private static void atDepth(int depth, String name, Runnable call) {
+        if (depth > 0) {
+            atDepth(depth - 1, name, call);
+        } else {
+            measure(name, call);
+        }
+    }
+
+    /**
+     * 当前线程累计分配的字节数，不支持时返回-1
+     */
+    static long allocatedBytes() {
+        try {
+            Class<?> factory = Class
+                    .forName("java.lang.management.ManagementFactory");
+            Object bean = factory.getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static class NoopLogger implements LogUtils.CustomLogger {
+        public void d(String tag, String content) {
+        }
+
+        public void d(String tag, String content, Throwable tr) {
+        }
+
+        public void e(String tag, String content) {
+        }
+
+        public void e(String tag, String content, Throwable tr) {
+        }
+
+        public void i(String tag, String content) {
+        }
+
+        public void i(String tag, String content, Throwable tr) {
+        }
+
+        public void v(String tag, String content) {
+        }
+
+        public void v(String tag, String content, Throwable tr) {
+        }
+
+        public void w(String tag, String content) {
+        }
+
+        public void w(String tag, String content, Throwable tr) {
+        }
+
+        public void w(String tag, Throwable tr) {
+        }
+
+        public void wtf(String tag, String content) {
+        }
+
+        public void wtf(String tag, String content, Throwable tr) {
+        }
+
+        public void wtf(String tag, Throwable tr) {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.finddreams.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.util.Log;
+
+/**
+ * "{}"模板的渲染，以及模板重载把末尾的Throwable当作异常打印
+ */
+public class LogUtilsRenderTest {
+
+    private static final Object ARG = "value";
+    private static final LogUtils.MessageSupplier SUPPLIER = new LogUtils.MessageSupplier() {
+        @Override
+        public String get() {
+            return "supplied " + ARG;
+        }
+    };
+
+    private final List<String> messages = new ArrayList<String>();
+    private final List<Throwable> errors = new ArrayList<Throwable>();
+
+    @Before
+    public void setUp() {
+        LogUtils.customLogger = new LogUtilsBenchmark.NoopLogger() {
+            @Override
+            public void e(String tag, String content) {
+                messages.add(content);
+                errors.add(null);
+            }
+
+            @Override
+            public void e(String tag, String content, Throwable tr) {
+                messages.add(content);
+                errors.add(tr);
+            }
+        };
+        LogUtils.setLevelFilter(null);
+        LogUtils.setRateLimiter(null);
+    }
+
+    @After
+    public void tearDown() {
+        LogUtils.customLogger = null;
+        LogUtils.allowFlightRecorder = true;
+        LogUtils.setLevelFilter(null);
+    }
+
+    private static String render(String format, Object... args) {
+        Object[] a = new Object[4];
+        System.arraycopy(args, 0, a, 0, args.length);
+        return LogUtils.render(format, args.length, a[0], a[1], a[2], a[3]);
+    }
+
+    @Test
+    public void placeholders() {
+        assertEquals("a=1 b=2", render("a={} b={}", 1, 2));
+        assertEquals("1234", render("{}{}{}{}", 1, 2, 3, 4));
+        assertEquals("x=null", render("x={}", (Object) null));
+        assertEquals("no placeholder", render("no placeholder", 1));
+        assertNull(render(null, 1));
+    }
+
+    @Test
+    public void extraPlaceholdersAreKept() {
+        assertEquals("1 {} {}", render("{} {} {}", 1));
+    }
+
+    @Test
+    public void escaping() {
+        assertEquals("{} 1", render("\\{} {}", 1));
+        assertEquals("\\1", render("\\\\{}", 1));
+        assertEquals("set {} to 1", render("set \\{} to {}", 1));
+    }
+
+    @Test
+    public void trailingThrowable() {
+        RuntimeException error = new RuntimeException("boom");
+        LogUtils.e("failed {}", "upload", error);
+        LogUtils.e("failed", error);
+        LogUtils.e("failed {} {}", "upload", error);
+        LogUtils.e("failed \\{} {}", "upload", error);
+
+        assertEquals("failed upload", messages.get(0));
+        assertSame(error, errors.get(0));
+        // 只有一个Throwable参数时匹配e(String, Throwable)，不经过模板
+        assertEquals("failed", messages.get(1));
+        assertSame(error, errors.get(1));
+        // 有对应的"{}"时照常格式化
+        assertEquals("failed upload " + error, messages.get(2));
+        assertNull(errors.get(2));
+        assertEquals("failed {} upload", messages.get(3));
+        assertSame(error, errors.get(3));
+    }
+
+    @Test
+    public void disabledCallDoesNotFormat() {
+        // FlightRecorder会在dump时格式化
+        LogUtils.allowFlightRecorder = false;
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.ASSERT).build());
+        LogUtils.e("value {}", new Object() {
+            @Override
+            public String toString() {
+                throw new AssertionError("formatted while disabled");
+            }
+        });
+        assertEquals(0, messages.size());
+    }
+
+    /**
+     * 级别未开启并且不记入FlightRecorder时，模板和supplier调用不分配内存。
+     * 只在能统计线程分配字节数的JVM上运行
+     */
+    @Test
+    public void disabledCallsDoNotAllocate() {
+        assumeTrue(LogUtilsBenchmark.allocatedBytes() >= 0);
+        LogUtils.allowFlightRecorder = false;
+        LogUtils.allowD = false;
+        try {
+            assertEquals(0, bytesPerCall(new Runnable() {
+                @Override
+                public void run() {
+                    LogUtils.d("value {} {}", ARG, ARG);
+                    LogUtils.dLazy(SUPPLIER);
+                }
+            }));
+        } finally {
+            LogUtils.allowD = true;
+        }
+
+        LogUtils.setLevelFilter(new LogLevelFilter.Builder(Log.ASSERT).build());
+        assertEquals(0, bytesPerCall(new Runnable() {
+            @Override
+            public void run() {
+                LogUtils.e("value {} {} {} {}", ARG, ARG, ARG, ARG);
+                LogUtils.eLazy(SUPPLIER);
+            }
+        }));
+        assertEquals(0, messages.size());
+    }
+
+    private static long bytesPerCall(Runnable call) {
+        // 预热，类加载、编译等一次性的分配不计入
+        for (int i = 0; i < 10000; i++) {
+            call.run();
+        }
+        int iterations = 100000;
+        long before = LogUtilsBenchmark.allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            call.run();
+        }
+        return (LogUtilsBenchmark.allocatedBytes() - before) / iterations;
+    }
+}
@@ -0,0 +1,128 @@
+package com.finddreams.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 二进制日志在进程被杀、重新启动后仍然可以完整解码
+ */
+public class LogWriterTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("logwriter", "");
+        root.delete();
+        root.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    @Test
+    public void restartAfterTornFrame() throws IOException {
+        // 不压缩、不切分，写完的段保持原样
+        LogRetention retention = new LogRetention(0, 0, 0, false);
+        LogWriter writer = newWriter(retention);
+        writer.write("Tag", "before restart");
+        writer.shutdown(5000);
+
+        List<File> files = binaryLogs();
+        assertEquals(1, files.size());
+        // 模拟写块时进程被杀：块长度写出来了，内容只写了一部分
+        FileOutputStream out = new FileOutputStream(files.get(0), true);
+        try {
+            out.write(new byte[] { BinaryLogEncoder.FRAME_BLOCK, (byte) 0x80,
+                    0x01, 1, 2, 3 });
+        } finally {
+            out.close();
+        }
+
+        writer = newWriter(retention);
+        writer.write("Tag", "after restart");
+        writer.shutdown(5000);
+
+        files = binaryLogs();
+        assertEquals(2, files.size());
+        String first = decode(files.get(0));
+        String second = decode(files.get(1));
+        assertTrue(first.endsWith(" Tag before restart\r\n"));
+        assertTrue(second.endsWith(" Tag after restart\r\n"));
+    }
+
+    private LogWriter newWriter(LogRetention retention) {
+        return new LogWriter(root.getPath() + "/", 16,
+                LogWriter.OverflowPolicy.BLOCK, 1024, 10,
+                LogWriter.Format.BINARY, retention);
+    }
+
+    /**
+     * 所有.blog文件，按段号排序
+     */
+    private List<File> binaryLogs() {
+        List<File> files = new ArrayList<File>();
+        collect(root, files);
+        // dd.blog、dd.1.blog、dd.2.blog...
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                int d = a.getName().length() - b.getName().length();
+                return d != 0 ? d : a.getName().compareTo(b.getName());
+            }
+        });
+        return files;
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, files);
+            } else if (child.getName().endsWith(".blog")) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static String decode(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            StringWriter out = new StringWriter();
+            new BinaryLogDecoder().decode(in, out);
+            return out.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}